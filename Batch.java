@@ -0,0 +1,89 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Runs a script of gitlet commands in one process.
+ *
+ *  Each line of a script is one command, as it would be typed after
+ *  "java gitlet.Main": its words are separated by blanks, and a word may
+ *  be quoted with single or double quotes, within which blanks are kept.
+ *  Outside single quotes, a backslash quotes the next character.  A
+ *  quote left open ends with the line.  Blank lines and lines starting
+ *  with '#' are skipped.
+ *
+ *  While a script runs, the repository's state files and branches are
+ *  kept in memory and written only by the command "checkpoint" and at
+ *  the end of the script, so that commands share what earlier commands
+ *  read and wrote.  Objects are still written as they are created.  The
+ *  script stops at the first command that fails unexpectedly, or that
+ *  cannot run in a batch; the state reached so far is still written.
+ *  @author Hanqi Xiong
+ */
+class Batch {
+
+    /** Run the script read from IN on REPO.  Return the exit code of the
+     *  first failed command, or 0. */
+    static int run(CommitTree repo, BufferedReader in) throws IOException {
+        repo.deferWrites(true);
+        try {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                String[] args = split(line);
+                if (args.length == 0 || args[0].startsWith("#")) {
+                    continue;
+                }
+                int code;
+                if (args[0].equals("batch") || args[0].equals("daemon")) {
+                    System.err.println("Cannot run " + args[0]
+                                       + " in a batch.");
+                    code = 1;
+                } else {
+                    code = Main.run(repo, args);
+                }
+                if (code != 0) {
+                    return code;
+                }
+            }
+            return 0;
+        } finally {
+            repo.deferWrites(false);
+        }
+    }
+
+    /** Return the words of LINE. */
+    static String[] split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+                continue;
+            }
+            if (word == null) {
+                word = new StringBuilder();
+            }
+            if (c == '\\' && quote != '\'' && i + 1 < line.length()) {
+                i += 1;
+                word.append(line.charAt(i));
+            } else if (c == quote) {
+                quote = 0;
+            } else if (quote == 0 && (c == '\'' || c == '"')) {
+                quote = c;
+            } else {
+                word.append(c);
+            }
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,98 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Helpers for the hand-rolled binary encodings of Commit, Tree and
+ *  StagingArea.  An encoding starts with a two-byte magic number naming
+ *  the kind of object and a version byte; strings are written as a
+ *  length followed by their UTF-8 bytes, and ids as 20 raw bytes.
+ *  @author Hanqi Xiong
+ */
+class BinaryFormat {
+
+    /** First two bytes of every Java serialization stream, used to tell
+     *  objects written before the binary encodings existed. */
+    static final int JAVA_MAGIC = 0xaced;
+
+    /** Return true iff DATA holds a Java serialization stream. */
+    static boolean isJavaSerialized(byte[] data) {
+        return data.length >= 2
+            && ((data[0] & 0xff) << 8 | (data[1] & 0xff)) == JAVA_MAGIC;
+    }
+
+    /** Return a stream for writing an encoding with magic number MAGIC
+     *  and version VERSION into BYTES. */
+    static DataOutputStream output(ByteArrayOutputStream bytes, int magic,
+                                   int version) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(magic);
+        out.writeByte(version);
+        return out;
+    }
+
+    /** Return a stream reading the encoding in DATA, checking that it has
+     *  magic number MAGIC and version VERSION. */
+    static DataInputStream input(byte[] data, int magic, int version)
+        throws IOException {
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readUnsignedShort() != magic
+            || in.readUnsignedByte() != version) {
+            throw new IllegalArgumentException("unknown object encoding");
+        }
+        return in;
+    }
+
+    /** Return the version of the encoding in DATA. */
+    static int version(byte[] data) {
+        if (data.length < 3) {
+            throw new IllegalArgumentException("unknown object encoding");
+        }
+        return data[2] & 0xff;
+    }
+
+    /** Write S to OUT as a length-prefixed UTF-8 string. */
+    static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return the next length-prefixed UTF-8 string from IN. */
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Write the hexadecimal id ID to OUT as raw bytes. */
+    static void writeId(DataOutputStream out, String id) throws IOException {
+        out.write(PackFile.toRaw(id));
+    }
+
+    /** Return the next raw id from IN in hexadecimal. */
+    static String readId(DataInputStream in) throws IOException {
+        byte[] raw = new byte[PackFile.ID_BYTES];
+        in.readFully(raw);
+        return PackFile.toHex(raw);
+    }
+
+    /** Return the Java-serialized object in DATA, cast to EXPECTEDCLASS.
+     *  Throws IllegalArgumentException in case of problems. */
+    static <T> T deserialize(byte[] data, Class<T> expectedClass) {
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -1,11 +1,51 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 public class Commit implements Serializable {
+    /** Pinned so that commits written by earlier versions still load. */
+    private static final long serialVersionUID = -3805590004316808964L;
+
+    /** The format of timestamps. */
+    static final DateTimeFormatter FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z");
+
+    /** Magic number of the binary encoding of commits. */
+    static final int MAGIC = 0x4743;
+
+    /** Version of the binary encoding of commits.  Version 1 listed the
+     *  blob of every file; version 2 names the root tree instead. */
+    static final int VERSION = 2;
+
+    /** Encoding flag: the commit has a parent. */
+    private static final int HAS_PARENT = 1;
+
+    /** Encoding flag: the commit has a second parent. */
+    private static final int HAS_PARENT2 = 2;
+
+    /** Encoding flag: the commit is a merge. */
+    private static final int MERGED = 4;
+
+    /** The time of the initial commit, in milliseconds since the epoch. */
+    private static final long EPOCH = 0;
+
+    /** The zone of the initial commit. */
+    private static final ZoneOffset EPOCH_ZONE = ZoneOffset.ofHours(-8);
+
     /** The commit message. */
     private final String message;
 
@@ -18,37 +58,184 @@ public class Commit implements Serializable {
     /** If this commit is merged. */
     private boolean merged;
 
-    /** The blobs. */
-    private final TreeMap<String, String> blobs;
+    /** The blobs, by path; read from the trees on first use, by any
+     *  of the threads sharing the commit. */
+    private volatile TreeMap<String, String> blobs;
+
+    /** The id of the root tree, or null for a commit made before trees
+     *  existed, which lists its blobs. */
+    private String tree;
+
+    /** The store of trees, set when the commit is read. */
+    private transient ObjectStore trees;
 
     /** The timestamp of the commit. */
     private String timestamp;
 
+    /** The time of the commit in milliseconds since the epoch. */
+    private long time;
+
+    /** The zone offset of the commit in seconds. */
+    private int zone;
+
     /** The commit sha1. */
-    private final String sha1;
+    private String sha1;
 
     /** the commit class.
-     * @param blob the blob contents
+     * @param root the root tree id
      * @param msg the message contents
      * @param parents the parent contents
      * @param merge if merged
      * @param parentTwo two parent
      * */
-    public Commit(String msg, String parents, TreeMap<String, String> blob,
+    public Commit(String msg, String parents, String root,
                   boolean merge, String parentTwo) {
+        this(msg, parents, root, null, merge, parentTwo,
+             parents == null ? ZonedDateTime.ofInstant(
+                     Instant.ofEpochMilli(EPOCH), EPOCH_ZONE)
+             : ZonedDateTime.now(), null);
+    }
+
+    /** A commit with the given contents, made at WHEN.
+     * @param msg the message contents
+     * @param parents the parent contents
+     * @param root the root tree id, or null
+     * @param blob the blob contents if root is null
+     * @param merge if merged
+     * @param parentTwo two parent
+     * @param when the time of the commit
+     * @param id the commit id, or null to hash the encoding
+     * */
+    private Commit(String msg, String parents, String root,
+                   TreeMap<String, String> blob, boolean merge,
+                   String parentTwo, ZonedDateTime when, String id) {
         this.merged = merge;
         this.parent2 = parentTwo;
         this.parent = parents;
         this.message = msg;
-        this.sha1 = Utils.sha1(Utils.serialize(this));
+        this.tree = root;
         this.blobs = blob;
-        ZonedDateTime now = ZonedDateTime.now();
-        this.timestamp = now.format
-                (DateTimeFormatter.ofPattern
-                ("EEE MMM d HH:mm:ss yyyy Z"));
-        if (parent == null) {
-            this.timestamp = "Wed Dec 31 16:00:00 1969 -0800";
+        this.time = when.toInstant().toEpochMilli();
+        this.zone = when.getOffset().getTotalSeconds();
+        this.timestamp = when.format(FORMAT);
+        this.sha1 = id == null ? Utils.sha1(encode()) : id;
+    }
+
+    /** Get the canonical binary encoding of this commit, whose hash is
+     *  its id.
+     * @return encoding
+     * */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out =
+                    BinaryFormat.output(bytes, MAGIC, VERSION);
+            out.writeByte((parent == null ? 0 : HAS_PARENT)
+                    | (parent2 == null ? 0 : HAS_PARENT2)
+                    | (merged ? MERGED : 0));
+            if (parent != null) {
+                BinaryFormat.writeId(out, parent);
+            }
+            if (parent2 != null) {
+                BinaryFormat.writeId(out, parent2);
+            }
+            out.writeLong(time);
+            out.writeInt(zone);
+            BinaryFormat.writeString(out, message);
+            if (tree == null) {
+                throw Utils.error("Internal error: commit has no tree.");
+            }
+            BinaryFormat.writeId(out, tree);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding commit.");
+        }
+    }
+
+    /** Get the commit with id ID encoded in DATA, which may also be a
+     *  commit written by an earlier version of gitlet.  Its files are
+     *  not available.
+     * @param id commit id
+     * @param data encoding
+     * @return commit
+     * */
+    public static Commit decode(String id, byte[] data) {
+        return decode(id, data, null);
+    }
+
+    /** Get the commit with id ID encoded in DATA, whose trees are in
+     *  TREES.
+     * @param id commit id
+     * @param data encoding
+     * @param trees store of trees
+     * @return commit
+     * */
+    public static Commit decode(String id, byte[] data, ObjectStore trees) {
+        Commit result = decodeCommit(id, data);
+        result.trees = trees;
+        return result;
+    }
+
+    /** Get the commit with id ID encoded in DATA.
+     * @param id commit id
+     * @param data encoding
+     * @return commit
+     * */
+    private static Commit decodeCommit(String id, byte[] data) {
+        if (BinaryFormat.isJavaSerialized(data)) {
+            Commit old = BinaryFormat.deserialize(data, Commit.class);
+            return new Commit(old.message, old.parent, null, old.blobs,
+                    old.merged, old.parent2,
+                    ZonedDateTime.parse(old.timestamp, FORMAT), id);
         }
+        try {
+            int version = BinaryFormat.version(data);
+            if (version > VERSION) {
+                throw new IllegalArgumentException("unknown object encoding");
+            }
+            DataInputStream in =
+                    BinaryFormat.input(data, MAGIC, version);
+            int flags = in.readUnsignedByte();
+            String parents = (flags & HAS_PARENT) == 0 ? null
+                    : BinaryFormat.readId(in);
+            String parentTwo = (flags & HAS_PARENT2) == 0 ? null
+                    : BinaryFormat.readId(in);
+            long millis = in.readLong();
+            ZoneOffset offset = ZoneOffset.ofTotalSeconds(in.readInt());
+            String msg = BinaryFormat.readString(in);
+            String root = null;
+            TreeMap<String, String> blob = null;
+            if (version == 1) {
+                blob = new TreeMap<>();
+                for (int n = in.readInt(); n > 0; n -= 1) {
+                    String name = BinaryFormat.readString(in);
+                    blob.put(name, BinaryFormat.readId(in));
+                }
+            } else {
+                root = BinaryFormat.readId(in);
+            }
+            return new Commit(msg, parents, root, blob,
+                    (flags & MERGED) != 0, parentTwo, ZonedDateTime.ofInstant(
+                            Instant.ofEpochMilli(millis), offset), id);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt commit " + id);
+        }
+    }
+
+    /** Get the same commit, but with parents renamed by NEWIDS and
+     *  re-hashed under the current encoding, storing its trees in TREES
+     *  if it had none.
+     * @param newIds new ids of the parents, by old id
+     * @param trees store of trees
+     * @return commit
+     * */
+    public Commit rehash(Map<String, String> newIds, ObjectStore trees) {
+        String root = tree == null ? Tree.build(trees, blobs) : tree;
+        return new Commit(message, newIds.getOrDefault(parent, parent),
+                root, null, merged, newIds.getOrDefault(parent2, parent2),
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(time),
+                        ZoneOffset.ofTotalSeconds(zone)), null);
     }
 
     /** Get the parent commit.
@@ -65,11 +252,69 @@ public class Commit implements Serializable {
         return sha1;
     }
 
-    /** Get the blobs of the commit.
+    /** Get the blobs of the commit, by path.  This reads every tree of
+     *  the commit; getBlob and Tree.diff read only what they need.  The
+     *  map is shared by all users of the commit, so it is read-only.
      * @return blobs
      * */
-    public TreeMap<String, String> getBlobs() {
-        return blobs;
+    public SortedMap<String, String> getBlobs() {
+        TreeMap<String, String> result = blobs;
+        if (result == null) {
+            result = new TreeMap<>();
+            Tree.flatten(trees, tree, "", result);
+            blobs = result;
+        }
+        return Collections.unmodifiableSortedMap(result);
+    }
+
+    /** Get the blob of the file at PATH.
+     * @param path file path
+     * @return blob id, or null if the commit has no such file
+     * */
+    public String getBlob(String path) {
+        TreeMap<String, String> result = blobs;
+        if (result != null) {
+            return result.get(path);
+        }
+        return Tree.lookup(trees, tree, path);
+    }
+
+    /** Get the blobs of the files at PATHS, by path, leaving out the
+     *  paths the commit has no file at.  Each tree on the way is read
+     *  once, however many of PATHS lie under it.
+     * @param paths file paths
+     * @return blob ids
+     * */
+    public Map<String, String> getBlobs(Collection<String> paths) {
+        TreeMap<String, String> all = blobs;
+        Map<String, Tree> cache = new HashMap<>();
+        Map<String, String> result = new HashMap<>();
+        for (String path : paths) {
+            String blob = all != null ? all.get(path)
+                    : Tree.lookup(trees, tree, path, cache);
+            if (blob != null) {
+                result.put(path, blob);
+            }
+        }
+        return result;
+    }
+
+    /** Get the root tree, storing the trees of a commit made before trees
+     *  existed in the commit's tree store first.
+     * @return root tree id
+     * */
+    public String getTree() {
+        if (tree == null) {
+            return Tree.build(trees, blobs);
+        }
+        return tree;
+    }
+
+    /** If the commit names a root tree of its own.
+     * @return if it has a tree
+     * */
+    public boolean hasTree() {
+        return tree != null;
     }
 
     /** Get the message of the commit.
@@ -93,6 +338,13 @@ public class Commit implements Serializable {
         return timestamp;
     }
 
+    /** Get the time stamp in milliseconds since the epoch.
+     * @return time
+     * */
+    public long getTime() {
+        return time;
+    }
+
     /** If merged.
      * @return if it is merged
      * */
@@ -107,108 +359,4 @@ public class Commit implements Serializable {
     public boolean equals(Commit commit) {
         return commit.sha1.equals(this.sha1);
     }
-
-    public static void print1() {
-        System.out.println("diff --git a/f.txt b/f.txt\n"
-                + "--- a/f.txt\n"
-                + "+++ b/f.txt\n"
-                + "@@ -0,0 +1,2 @@\n"
-                + "+Line 0.\n"
-                + "+Line 0.1.\n"
-                + "@@ -2 +3,0 @@\n"
-                + "-Line 2.\n"
-                + "@@ -5,2 +5,0 @@\n"
-                + "-Line 5.\n"
-                + "-Line 6.\n"
-                + "@@ -9,0 +9,2 @@\n"
-                + "+Line 9.1.\n"
-                + "+Line 9.2.\n"
-                + "@@ -11,0 +13 @@\n"
-                + "+Line 11.1.\n"
-                + "@@ -13 +15 @@\n"
-                + "-Line 13.\n"
-                + "+Line 13.1\n"
-                + "@@ -16,2 +18,3 @@\n"
-                + "-Line 16.\n"
-                + "-Line 17.\n"
-                + "+Line 16.1\n"
-                + "+Line 17.1\n"
-                + "+Line 18.\n"
-                + "diff --git a/h.txt /dev/null\n"
-                + "--- a/h.txt\n"
-                + "+++ /dev/null\n"
-                + "@@ -1 +0,0 @@\n"
-                + "-This is not a wug.");
-    }
-
-    public static void print2() {
-        System.out.println("diff --git a/f.txt b/f.txt\n"
-                + "--- a/f.txt\n"
-                + "+++ b/f.txt\n"
-                + "@@ -0,0 +1,2 @@\n"
-                + "+Line 0.\n"
-                + "+Line 0.1.\n"
-                + "@@ -2 +3,0 @@\n"
-                + "-Line 2.\n"
-                + "@@ -5,2 +5,0 @@\n"
-                + "-Line 5.\n"
-                + "-Line 6.\n"
-                + "@@ -9,0 +9,2 @@\n"
-                + "+Line 9.1.\n"
-                + "+Line 9.2.\n"
-                + "@@ -11,0 +13 @@\n"
-                + "+Line 11.1.\n"
-                + "@@ -13 +15 @@\n"
-                + "-Line 13.\n"
-                + "+Line 13.1\n"
-                + "@@ -16,2 +18,3 @@\n"
-                + "-Line 16.\n"
-                + "-Line 17.\n"
-                + "+Line 16.1\n"
-                + "+Line 17.1\n"
-                + "+Line 18.\n"
-                + "diff --git a/h.txt /dev/null\n"
-                + "--- a/h.txt\n"
-                + "+++ /dev/null\n"
-                + "@@ -1 +0,0 @@\n"
-                + "-This is not a wug.");
-    }
-
-    public static void print3() {
-        System.out.println("diff --git a/f.txt b/f.txt\n"
-                + "--- a/f.txt\n"
-                + "+++ b/f.txt\n"
-                + "@@ -0,0 +1,2 @@\n"
-                + "+Line 0.\n"
-                + "+Line 0.1.\n"
-                + "@@ -2 3,0 @@\n"
-                + "-Line 2.\n"
-                + "@@ -5,2 +5,0 @@\n"
-                + "-Line 5.\n"
-                + "-Line 6.\n"
-                + "@@ -9,0 +9,2 @@\n"
-                + "+Line 9.1.\n"
-                + "+Line 9.2.\n"
-                + "@@ -11,0 +13 @@\n"
-                + "+Line 11.1.\n"
-                + "@@ -13 +15 @@\n"
-                + "-Line 13.\n"
-                + "+Line 13.1\n"
-                + "@@ -16,2 +18,3 @@\n"
-                + "-Line 16.\n"
-                + "-Line 17.\n"
-                + "+Line 16.1\n"
-                + "+Line 17.1\n"
-                + "+Line 18.\n"
-                + "diff --git a/h.txt /dev/null\n"
-                + "--- a/h.txt\n"
-                + "+++ /dev/null\n"
-                + "@@ -1 +0,0 @@\n"
-                + "-This is not a wug.\n"
-                + "diff --git /dev/null b/i.txt\n"
-                + "--- /dev/null\n"
-                + "+++ b/i.txt\n"
-                + "@@ -0,0 +1 @@\n"
-                + "+This is a wug.");
-    }
 }
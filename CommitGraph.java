@@ -0,0 +1,258 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** The commit graph: a file giving every commit a dense integer position
+ *  together with the positions of its parents, its generation number and
+ *  its timestamp, so that history can be walked without deserializing
+ *  commits.  The file is a header (magic number, version, count) followed
+ *  by fixed-size records in position order.  A commit is always added
+ *  after its parents, so parents have smaller positions than children.
+ *  The generation of a root is 1; that of any other commit is one more
+ *  than the largest generation of its parents.  Several threads may
+ *  read the graph at once, but none while it is added to, rebuilt or
+ *  refreshed.
+ *  @author Hanqi Xiong
+ */
+class CommitGraph implements MergeBase.Graph {
+
+    /** Position standing for a missing parent. */
+    static final int NONE = -1;
+
+    /** Magic number opening the file. */
+    private static final int MAGIC = 0x47434752;
+
+    /** Current format version. */
+    private static final int VERSION = 1;
+
+    /** Length of the header. */
+    private static final int HEADER = 12;
+
+    /** Length of a record: raw id, two parents, generation, timestamp. */
+    private static final int RECORD = PackFile.ID_BYTES + 4 + 4 + 4 + 8;
+
+    /** The file holding the graph. */
+    private final File file;
+
+    /** The memory-mapped file, or null if not yet mapped. */
+    private ByteBuffer map;
+
+    /** Number of commits in the graph. */
+    private int count;
+
+    /** Positions of the commits, by id; filled on first lookup. */
+    private HashMap<String, Integer> positions;
+
+    /** A graph stored in FILE. */
+    CommitGraph(File file) {
+        this.file = file;
+    }
+
+    /** Return true iff the graph file exists. */
+    boolean exists() {
+        return file.isFile();
+    }
+
+    /** Return the number of commits in the graph. */
+    @Override
+    public synchronized int size() {
+        load();
+        return count;
+    }
+
+    /** Return true iff the graph as mapped is the whole graph file, which
+     *  another process may have added to since. */
+    synchronized boolean isCurrent() {
+        load();
+        return file.isFile() ? file.length() == offset(count) : count == 0;
+    }
+
+    /** Map the graph file again if another process changed it since it
+     *  was mapped. */
+    synchronized void refresh() {
+        if (!isCurrent()) {
+            map = null;
+            positions = null;
+            load();
+        }
+    }
+
+    /** Return the position of commit ID, or NONE if it is not in the
+     *  graph. */
+    synchronized int position(String id) {
+        load();
+        if (positions == null) {
+            positions = new HashMap<>();
+            for (int k = 0; k < count; k += 1) {
+                positions.put(id(k), k);
+            }
+        }
+        Integer k = positions.get(id);
+        return k == null ? NONE : k;
+    }
+
+    /** Return the id of the commit at position K. */
+    String id(int k) {
+        byte[] raw = new byte[PackFile.ID_BYTES];
+        map.get(offset(k), raw);
+        return PackFile.toHex(raw);
+    }
+
+    /** Return the position of the first parent of K, or NONE. */
+    @Override
+    public int parent(int k) {
+        return map.getInt(offset(k) + PackFile.ID_BYTES);
+    }
+
+    /** Return the position of the second parent of K, or NONE. */
+    @Override
+    public int parent2(int k) {
+        return map.getInt(offset(k) + PackFile.ID_BYTES + 4);
+    }
+
+    /** Return the generation number of K. */
+    @Override
+    public int generation(int k) {
+        return map.getInt(offset(k) + PackFile.ID_BYTES + 8);
+    }
+
+    /** Return the timestamp of K in milliseconds since the epoch. */
+    long time(int k) {
+        return map.getLong(offset(k) + PackFile.ID_BYTES + 12);
+    }
+
+    /** Append commit ID with parents PARENT and PARENT2 (either may be
+     *  null) and timestamp TIME, unless it is already present.  Returns
+     *  its position. */
+    int add(String id, String parent, String parent2, long time) {
+        int k = position(id);
+        if (k != NONE) {
+            return k;
+        }
+        int p1 = parent == null ? NONE : position(parent);
+        int p2 = parent2 == null ? NONE : position(parent2);
+        int gen = 1;
+        if (p1 != NONE) {
+            gen = Math.max(gen, generation(p1) + 1);
+        }
+        if (p2 != NONE) {
+            gen = Math.max(gen, generation(p2) + 1);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        record.put(PackFile.toRaw(id)).putInt(p1).putInt(p2).putInt(gen)
+            .putLong(time).flip();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(count + 1).flip();
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ch.write(record, offset(count));
+            ch.write(header, 0);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        positions.put(id, count);
+        count += 1;
+        map = null;
+        load();
+        return count - 1;
+    }
+
+    /** Rebuild the graph from the commits in STORE, which are read once
+     *  and written out in an order that puts parents before children. */
+    void rebuild(ObjectStore store) {
+        List<String> ids = store.ids();
+        HashMap<String, Commit> commits = new HashMap<>();
+        for (String id : ids) {
+            commits.put(id, Commit.decode(id, store.read(id)));
+        }
+        HashMap<String, Integer> order = new HashMap<>();
+        ArrayList<Integer> gens = new ArrayList<>();
+        ByteBuffer out = ByteBuffer.allocate(offset(ids.size()));
+        out.putInt(MAGIC).putInt(VERSION).putInt(ids.size());
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        for (String root : ids) {
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                Commit c = commits.get(id);
+                if (order.containsKey(id) || c == null) {
+                    stack.pop();
+                    continue;
+                }
+                String[] parents = {c.getParent(), c.getParent2()};
+                boolean ready = true;
+                for (String p : parents) {
+                    if (p != null && commits.containsKey(p)
+                        && !order.containsKey(p)) {
+                        stack.push(p);
+                        ready = false;
+                    }
+                }
+                if (!ready) {
+                    continue;
+                }
+                stack.pop();
+                int[] pos = new int[2];
+                int gen = 1;
+                for (int i = 0; i < 2; i += 1) {
+                    Integer k = parents[i] == null ? null
+                        : order.get(parents[i]);
+                    pos[i] = k == null ? NONE : k;
+                    if (k != null) {
+                        gen = Math.max(gen, gens.get(k) + 1);
+                    }
+                }
+                order.put(id, gens.size());
+                gens.add(gen);
+                out.put(PackFile.toRaw(id)).putInt(pos[0]).putInt(pos[1])
+                    .putInt(gen).putLong(c.getTime());
+            }
+        }
+        out.flip();
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                ch.write(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        map = null;
+        positions = null;
+    }
+
+    /** Map the graph file, if it exists and is not mapped yet. */
+    private void load() {
+        if (map != null) {
+            return;
+        }
+        if (!file.isFile()) {
+            count = 0;
+            map = ByteBuffer.allocate(0);
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath())) {
+            map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad commit graph");
+        }
+        count = map.getInt(8);
+    }
+
+    /** Return the offset of the record at position K. */
+    private static int offset(int k) {
+        return HEADER + k * RECORD;
+    }
+}
@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/** A sorted index of all commit ids for resolving abbreviated ids.  The
+ *  index proper is a header (magic number, version, count) followed by
+ *  the raw 20-byte ids in sorted order; it is memory-mapped and searched
+ *  by bisection.  Ids of new commits are appended to a small unsorted
+ *  log next to it, which is folded into the index once it grows past
+ *  LOG_LIMIT entries.
+ *  @author Hanqi Xiong
+ */
+class CommitIndex {
+
+    /** Number of logged ids that triggers a compaction. */
+    static final int LOG_LIMIT = 1024;
+
+    /** Magic number opening the index. */
+    private static final int MAGIC = 0x47434958;
+
+    /** Current format version. */
+    private static final int VERSION = 1;
+
+    /** Length of the header. */
+    private static final int HEADER = 12;
+
+    /** Length of a raw id. */
+    private static final int ID = PackFile.ID_BYTES;
+
+    /** The sorted index. */
+    private final File file;
+
+    /** The log of recently added ids. */
+    private final File log;
+
+    /** A commit index stored in FILE. */
+    CommitIndex(File file) {
+        this.file = file;
+        this.log = new File(file.getPath() + ".log");
+    }
+
+    /** Return true iff the index exists. */
+    boolean exists() {
+        return file.isFile();
+    }
+
+    /** Return the number of ids in the index. */
+    int size() {
+        int result = log.isFile() ? (int) (log.length() / ID) : 0;
+        return result + map(file).getInt(8);
+    }
+
+    /** Return an iterator over all ids in sorted order.  The index is
+     *  read as it is iterated, merged with the (sorted) log. */
+    Iterator<String> iterator() {
+        ByteBuffer index = map(file);
+        int count = index.getInt(8);
+        ArrayList<String> recent = new ArrayList<>();
+        if (log.isFile()) {
+            ByteBuffer buf = map(log);
+            for (int k = 0; k < buf.limit() / ID; k += 1) {
+                recent.add(idAt(buf, 0, k));
+            }
+            recent.sort(null);
+        }
+        return new Iterator<>() {
+            private int k, r;
+
+            @Override
+            public boolean hasNext() {
+                return k < count || r < recent.size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String fromIndex =
+                    k < count ? idAt(index, HEADER, k) : null;
+                String fromLog = r < recent.size() ? recent.get(r) : null;
+                if (fromLog == null || fromIndex != null
+                    && fromIndex.compareTo(fromLog) <= 0) {
+                    k += 1;
+                    if (fromIndex.equals(fromLog)) {
+                        r += 1;
+                    }
+                    return fromIndex;
+                }
+                r += 1;
+                return fromLog;
+            }
+        };
+    }
+
+    /** Return all commit ids starting with PREFIX, in sorted order. */
+    List<String> resolve(String prefix) {
+        TreeSet<String> result = new TreeSet<>();
+        if (!prefix.matches("[0-9a-f]{1,40}")) {
+            return new ArrayList<>(result);
+        }
+        ByteBuffer index = map(file);
+        if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad commit index");
+        }
+        int count = index.getInt(8);
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (idAt(index, HEADER, mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < count; k += 1) {
+            String id = idAt(index, HEADER, k);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        if (log.isFile()) {
+            ByteBuffer recent = map(log);
+            for (int k = 0; k < recent.limit() / ID; k += 1) {
+                String id = idAt(recent, 0, k);
+                if (id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Record the new commit ID. */
+    void add(String id) {
+        long logged;
+        try (FileChannel ch = FileChannel.open(log.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.APPEND)) {
+            ch.write(ByteBuffer.wrap(PackFile.toRaw(id)));
+            logged = ch.size() / ID;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (logged >= LOG_LIMIT) {
+            compact();
+        }
+    }
+
+    /** Replace the index with one holding exactly IDS. */
+    void rebuild(Collection<String> ids) {
+        write(new TreeSet<>(ids));
+        log.delete();
+    }
+
+    /** Fold the log into the index. */
+    void compact() {
+        TreeSet<String> ids = new TreeSet<>();
+        if (file.isFile()) {
+            ByteBuffer index = map(file);
+            for (int k = 0; k < index.getInt(8); k += 1) {
+                ids.add(idAt(index, HEADER, k));
+            }
+        }
+        if (log.isFile()) {
+            ByteBuffer recent = map(log);
+            for (int k = 0; k < recent.limit() / ID; k += 1) {
+                ids.add(idAt(recent, 0, k));
+            }
+        }
+        write(ids);
+        log.delete();
+    }
+
+    /** Atomically replace the index with one holding IDS. */
+    private void write(TreeSet<String> ids) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(
+                     tmp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            for (String id : ids) {
+                out.write(PackFile.toRaw(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the contents of F, memory-mapped. */
+    private static ByteBuffer map(File f) {
+        try (FileChannel ch = FileChannel.open(f.toPath())) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the K-th id of the ids in BUF that start at START. */
+    private static String idAt(ByteBuffer buf, int start, int k) {
+        byte[] raw = new byte[ID];
+        buf.get(start + k * ID, raw);
+        return PackFile.toHex(raw);
+    }
+}
@@ -4,186 +4,1127 @@ package gitlet;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
 import java.util.Set;
-import java.util.Objects;
+import java.util.TreeSet;
+import java.util.Iterator;
+import java.util.Collection;
 import java.util.Collections;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 
+/**
+ * A gitlet repository: its working directory, the .gitlet directory in
+ * it, and what a command has loaded of them.  Each instance keeps its
+ * own caches, so a process may open several repositories; an instance
+ * runs one command at a time, and Repository adds the locking needed to
+ * share one between threads.
+ */
 public class CommitTree {
     /**
-     * The Current Path.
+     * The threads writing files on checkout, which wait on I/O more than
+     * they compute.
      */
-    static final File CWD = new File(System.getProperty("user.dir"));
+    private static final ForkJoinPool CHECKOUT_POOL = new ForkJoinPool(
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The number of loose branches above which they are packed.
+     */
+    private static final int LOOSE_REFS = 64;
+
+    /**
+     * The prefix of the contents of Head.
+     */
+    private static final String HEAD_PREFIX = "ref: ";
+
+    /**
+     * The number of commits kept in memory.
+     */
+    private static final int COMMIT_CACHE_SIZE = 4096;
+
+    /**
+     * The working directory.
+     */
+    private final File root;
 
     /**
      * The path of Gitlet.
      */
-    static final File GITLET = new File(CWD, ".gitlet");
+    private final File gitletDir;
+
+    /**
+     * The files of the working directory.
+     */
+    private final WorkingTree work;
 
     /**
      * The path of StagingArea.
      */
-    static final File STAGINGAREA = new File(".gitlet", "StagingArea");
+    private final File stageFile;
 
     /**
      * The path of Commits.
      */
-    static final File COMMITS = new File(".gitlet", "Commits");
+    private final File commitsDir;
 
     /**
      * The path of Blobs.
      */
-    static final File BLOBS = new File(".gitlet", "Blobs");
+    private final File blobsDir;
+
+    /**
+     * The path of Trees.
+     */
+    private final File treesDir;
+
+    /**
+     * The store of blobs, loose or packed.
+     */
+    private final ObjectStore blobStore;
+
+    /**
+     * The store of commits.
+     */
+    private final ObjectStore commitStore;
+
+    /**
+     * The store of trees.
+     */
+    private final ObjectStore treeStore;
+
+    /**
+     * The commit graph.
+     */
+    private final CommitGraph commitGraph;
+
+    /**
+     * The index of commit ids.
+     */
+    private final CommitIndex commitIndex;
+
+    /**
+     * The log of the commit message index.
+     */
+    private final File messagesFile;
+
+    /**
+     * The commit message index as last read from its log.
+     */
+    private MessageIndex messages;
+
+    /**
+     * The stat cache of the working files.
+     */
+    private final StatCache statCache;
+
+    /**
+     * The journal of the file-system watcher.
+     */
+    private final WatchJournal watchJournal;
+
+    /**
+     * The path of the loose branches, one file per branch updated since
+     * the branches were last packed.  An empty file marks a packed
+     * branch as deleted.
+     */
+    private final File refsDir;
+
+    /**
+     * The packed branches.
+     */
+    private final PackedRefs packedRefs;
+
+    /**
+     * The path of Head, naming the current branch as "ref: NAME".
+     */
+    private final File headFile;
 
     /**
-     * The path of Branches.
+     * The path of Branches in older repositories.
      */
-    static final File BRANCHFOLDER = new File(".gitlet", "BRANCHFOLDER");
+    private final File legacyBranches;
 
     /**
-     * The path of Head.
+     * The path of Current branch in older repositories.
      */
-    static final File HEAD = new File(".gitlet", "HEAD");
+    private final File legacyBranch;
 
     /**
-     * The path of Current branch.
+     * The path of the serialized message index of older repositories.
      */
-    private static final File BRANCH = new File(".gitlet", "BRANCH");
+    private final File legacyMessages;
 
     /**
      * The name of Branch.
      */
-    private static String branchName;
+    private String branchName;
 
     /**
      * The sha1 of head.
      */
-    private static String head;
+    private String head;
+
+    /**
+     * Last commit.
+     */
+    private Commit lastCommit;
+
+    /**
+     * The current StagingArea.
+     */
+    private StagingArea currStage;
+
+    /**
+     * The small state files read or written by this repository, with
+     * their contents, so that a long-running process reads them again
+     * only after another process changed them.
+     */
+    private final HashMap<File, CachedState> stateCache = new HashMap<>();
+
+    /**
+     * If writes of state files and branches are held in memory until
+     * the next checkpoint.
+     */
+    private boolean deferred;
+
+    /**
+     * The commits read from this repository, by id, most recently used
+     * last.
+     */
+    private final LinkedHashMap<String, Commit> commitCache =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Commit> eldest) {
+                    return size() > COMMIT_CACHE_SIZE;
+                }
+            };
+
+    /**
+     * The repository whose working directory is ROOT.  Nothing is read
+     * until a command runs.
+     *
+     * @param root working directory
+     */
+    CommitTree(File root) {
+        this.root = root;
+        gitletDir = new File(root, WorkingTree.REPOSITORY);
+        work = new WorkingTree(root);
+        stageFile = new File(gitletDir, "StagingArea");
+        commitsDir = new File(gitletDir, "Commits");
+        blobsDir = new File(gitletDir, "Blobs");
+        treesDir = new File(gitletDir, "Trees");
+        blobStore = new ObjectStore(blobsDir);
+        commitStore = new ObjectStore(commitsDir);
+        treeStore = new ObjectStore(treesDir);
+        commitGraph = new CommitGraph(new File(gitletDir, "commit-graph"));
+        commitIndex = new CommitIndex(new File(gitletDir, "commit-index"));
+        messagesFile = new File(gitletDir, "messages");
+        messages = new MessageIndex(messagesFile);
+        statCache = new StatCache(new File(gitletDir, "index"), work);
+        watchJournal = new WatchJournal(new File(gitletDir, "watch"), work,
+                                        statCache);
+        refsDir = new File(gitletDir, "refs");
+        packedRefs = new PackedRefs(new File(gitletDir, "packed-refs"));
+        headFile = new File(gitletDir, "HEAD");
+        legacyBranches = new File(gitletDir, "BRANCHFOLDER");
+        legacyBranch = new File(gitletDir, "BRANCH");
+        legacyMessages = new File(gitletDir, "MessageIndex");
+    }
+
+    /**
+     * Get the working directory.
+     *
+     * @return root
+     */
+    File root() {
+        return root;
+    }
+
+    /**
+     * If the working directory holds a repository.
+     *
+     * @return if initialized
+     */
+    boolean exists() {
+        return gitletDir.isDirectory();
+    }
+
+    /**
+     * The contents of a state file as last read or written, with the
+     * size and modification time the file had then.  While writes are
+     * deferred, a written state is only kept here, marked dirty, until
+     * the next checkpoint; a dirty state with neither data nor value
+     * stands for a deleted file.
+     */
+    private static final class CachedState {
+        /** The modification time of the file. */
+        private long modified;
+        /** The size of the file. */
+        private long length;
+        /** The contents, or null if only the value is known. */
+        private byte[] data;
+        /** The object decoded from data, or null. */
+        private Object value;
+        /** If the file is yet to be written. */
+        private boolean dirty;
+
+        /**
+         * The state of a file just read or written.
+         *
+         * @param file the file
+         * @param data its contents
+         */
+        CachedState(File file, byte[] data) {
+            this.data = data;
+            stamp(file);
+        }
+
+        /**
+         * A state not yet written.
+         *
+         * @param data contents, or null
+         * @param value object, or null
+         */
+        CachedState(byte[] data, Object value) {
+            this.data = data;
+            this.value = value;
+            this.dirty = true;
+        }
+
+        /**
+         * Remember the size and modification time of the file.
+         *
+         * @param file the file
+         */
+        void stamp(File file) {
+            modified = file.lastModified();
+            length = file.length();
+        }
+
+        /**
+         * If the file still looks as it did, or is yet to be written.
+         *
+         * @param file the file
+         * @return if unchanged
+         */
+        boolean isCurrent(File file) {
+            return dirty || file.lastModified() == modified
+                    && file.length() == length;
+        }
+
+        /**
+         * If this is a deleted file.
+         *
+         * @return if deleted
+         */
+        boolean isDeleted() {
+            return dirty && data == null && value == null;
+        }
+
+        /**
+         * Get the contents to write.
+         *
+         * @return contents
+         */
+        byte[] encode() {
+            return value == null ? data : encodeState(value);
+        }
+    }
+
+    /**
+     * Hold writes of state files and branches in memory until the next
+     * checkpoint, or write them through again.
+     *
+     * @param on if writes are deferred
+     */
+    void deferWrites(boolean on) {
+        if (!on) {
+            checkpoint();
+        }
+        deferred = on;
+    }
+
+    /**
+     * Write the state files and branches changed while writes were
+     * deferred, and the stat cache, packing the branches if too many
+     * are loose.
+     */
+    synchronized void checkpoint() {
+        Iterator<Map.Entry<File, CachedState>> entries =
+                stateCache.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<File, CachedState> entry = entries.next();
+            CachedState cached = entry.getValue();
+            if (!cached.dirty) {
+                continue;
+            }
+            if (cached.isDeleted()) {
+                entry.getKey().delete();
+                entries.remove();
+                continue;
+            }
+            cached.data = cached.encode();
+            Utils.writeContents(entry.getKey(), cached.data);
+            cached.dirty = false;
+            cached.stamp(entry.getKey());
+        }
+        if (looseRefNames().size() > LOOSE_REFS) {
+            packRefs();
+        }
+        statCache.save();
+    }
+
+    /**
+     * Get the encoding of a state object.
+     *
+     * @param obj object
+     * @return contents
+     */
+    private static byte[] encodeState(Object obj) {
+        if (obj instanceof StagingArea) {
+            return ((StagingArea) obj).encode();
+        }
+        return Utils.serialize((Serializable) obj);
+    }
+
+    /**
+     * Get the cached state of a file, reading the file if it changed
+     * since this process last read or wrote it.
+     *
+     * @param file state file
+     * @return state
+     */
+    private synchronized CachedState current(File file) {
+        CachedState cached = stateCache.get(file);
+        if (cached == null || !cached.isCurrent(file)) {
+            cached = new CachedState(file, Utils.readContents(file));
+            stateCache.put(file, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * If a state file exists, or will once writes are flushed.
+     *
+     * @param file state file
+     * @return if it exists
+     */
+    synchronized boolean stateExists(File file) {
+        CachedState cached = stateCache.get(file);
+        if (cached != null && cached.dirty) {
+            return !cached.isDeleted();
+        }
+        return file.isFile();
+    }
+
+    /**
+     * Get the contents of a state file, from memory if the file has not
+     * changed since this process last read or wrote it.
+     *
+     * @param file state file
+     * @return contents
+     */
+    synchronized byte[] readState(File file) {
+        CachedState cached = current(file);
+        if (cached.isDeleted()) {
+            throw Utils.error("No such file: " + file);
+        }
+        return cached.data == null ? cached.encode() : cached.data;
+    }
+
+    /**
+     * Write a state file, remembering its contents.
+     *
+     * @param file state file
+     * @param data contents
+     */
+    synchronized void writeState(File file, byte[] data) {
+        if (deferred) {
+            stateCache.put(file, new CachedState(data, null));
+            return;
+        }
+        Utils.writeContents(file, data);
+        stateCache.put(file, new CachedState(file, data));
+    }
+
+    /**
+     * Delete a state file.
+     *
+     * @param file state file
+     */
+    synchronized void deleteState(File file) {
+        if (deferred) {
+            stateCache.put(file, new CachedState((byte[]) null, null));
+            return;
+        }
+        file.delete();
+        stateCache.remove(file);
+    }
+
+    /**
+     * Get the object serialized in a state file, reusing the object last
+     * read or written while the file is unchanged.
+     *
+     * @param file state file
+     * @param type class of the object
+     * @param <T> type of the object
+     * @return object
+     */
+    synchronized <T extends Serializable> T readStateObject(
+            File file, Class<T> type) {
+        CachedState cached = current(file);
+        if (!type.isInstance(cached.value)) {
+            cached.value = BinaryFormat.deserialize(readState(file), type);
+        }
+        return type.cast(cached.value);
+    }
+
+    /**
+     * Write an object to a state file, remembering it.  While writes
+     * are deferred, the object is only encoded at the next checkpoint.
+     *
+     * @param file state file
+     * @param obj object
+     */
+    synchronized void writeStateObject(File file, Serializable obj) {
+        if (deferred) {
+            stateCache.put(file, new CachedState(null, obj));
+            return;
+        }
+        writeState(file, encodeState(obj));
+        stateCache.get(file).value = obj;
+    }
+
+    /**
+     * Get the id of the head commit.
+     *
+     * @return head
+     */
+    String readHead() {
+        return readRef(currentBranch());
+    }
+
+    /**
+     * Get the name of the current branch.  Branches of older
+     * repositories are first moved to the packed branches.
+     *
+     * @return branch name
+     */
+    String currentBranch() {
+        String head = new String(readState(headFile), StandardCharsets.UTF_8);
+        if (!head.startsWith(HEAD_PREFIX)) {
+            migrateRefs();
+            head = new String(readState(headFile), StandardCharsets.UTF_8);
+        }
+        return head.substring(HEAD_PREFIX.length());
+    }
+
+    /**
+     * Make a branch the current one.
+     *
+     * @param name branch name
+     */
+    void setCurrentBranch(String name) {
+        writeState(headFile, (HEAD_PREFIX + name).getBytes(
+                StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the head of a branch, from its loose file if it has one and
+     * otherwise from the packed branches.
+     *
+     * @param name branch name
+     * @return commit id, or null if there is no such branch
+     */
+    String readRef(String name) {
+        File ref = new File(refsDir, name);
+        if (!stateExists(ref)) {
+            return packedRefs.get(name);
+        }
+        byte[] sha1 = readState(ref);
+        return sha1.length == 0 ? null
+                : new String(sha1, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Set the head of a branch, creating it if needed.
+     *
+     * @param name branch name
+     * @param sha1 commit id
+     */
+    void writeRef(String name, String sha1) {
+        writeState(new File(refsDir, name),
+                sha1.getBytes(StandardCharsets.UTF_8));
+        packRefsIfLoose();
+    }
+
+    /**
+     * Delete a branch.
+     *
+     * @param name branch name
+     */
+    void deleteRef(String name) {
+        File ref = new File(refsDir, name);
+        if (packedRefs.get(name) != null) {
+            writeState(ref, new byte[0]);
+            packRefsIfLoose();
+        } else {
+            deleteState(ref);
+        }
+    }
+
+    /**
+     * Get the names of all branches.
+     *
+     * @return sorted branch names
+     */
+    List<String> refNames() {
+        TreeSet<String> names = new TreeSet<>(packedRefs.all().keySet());
+        for (String name : looseRefNames()) {
+            if (readState(new File(refsDir, name)).length == 0) {
+                names.remove(name);
+            } else {
+                names.add(name);
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Get the names of the loose branches, including those marked as
+     * deleted.
+     *
+     * @return sorted names
+     */
+    private synchronized List<String> looseRefNames() {
+        TreeSet<String> names = new TreeSet<>();
+        List<String> files = Utils.plainFilenamesIn(refsDir);
+        if (files != null) {
+            names.addAll(files);
+        }
+        for (Map.Entry<File, CachedState> entry : stateCache.entrySet()) {
+            File file = entry.getKey();
+            if (entry.getValue().dirty
+                    && refsDir.equals(file.getParentFile())) {
+                if (entry.getValue().isDeleted()) {
+                    names.remove(file.getName());
+                } else {
+                    names.add(file.getName());
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Pack the branches if there are too many loose ones, unless writes
+     * are deferred.
+     */
+    private void packRefsIfLoose() {
+        if (!deferred && looseRefNames().size() > LOOSE_REFS) {
+            packRefs();
+        }
+    }
+
+    /**
+     * Fold the loose branches into the packed ones, replacing the packed
+     * file atomically before deleting the loose files it now covers.
+     */
+    synchronized void packRefs() {
+        TreeMap<String, String> refs = packedRefs.all();
+        List<String> loose = looseRefNames();
+        for (String name : loose) {
+            byte[] sha1 = readState(new File(refsDir, name));
+            if (sha1.length == 0) {
+                refs.remove(name);
+            } else {
+                refs.put(name, new String(sha1, StandardCharsets.UTF_8));
+            }
+        }
+        packedRefs.write(refs);
+        for (String name : loose) {
+            File ref = new File(refsDir, name);
+            ref.delete();
+            stateCache.remove(ref);
+        }
+    }
+
+    /**
+     * Move the branches of an older repository, one file per branch with
+     * the current one and its head kept apart, to the packed branches.
+     */
+    private void migrateRefs() {
+        TreeMap<String, String> refs = new TreeMap<>();
+        List<String> names = Utils.plainFilenamesIn(legacyBranches);
+        if (names != null) {
+            for (String name : names) {
+                refs.put(name, Utils.readContentsAsString(
+                        new File(legacyBranches, name)));
+            }
+        }
+        String current = (String) readStateObject(legacyBranch, TreeMap.class)
+                .firstKey();
+        refsDir.mkdir();
+        packedRefs.write(refs);
+        setCurrentBranch(current);
+        deleteState(legacyBranch);
+        if (names != null) {
+            for (String name : names) {
+                new File(legacyBranches, name).delete();
+            }
+        }
+        legacyBranches.delete();
+    }
+
+    /**
+     * Forget what the previous command learned about the working
+     * directory, and reopen the commit graph and the packs of stores
+     * changed since, so that a long-running process sees the changes of
+     * other processes.
+     */
+    void refresh() {
+        watchJournal.reset();
+        commitGraph.refresh();
+        blobStore.refresh();
+        commitStore.refresh();
+        treeStore.refresh();
+    }
+
+    /**
+     * Creates a new Gitlet version-control system in the working
+     * directory.
+     */
+    public void init() {
+        if (gitletDir.exists()) {
+            throw new GitletException.Conflict("A Gitlet version-control"
+                    + " system already exists in the current directory");
+        }
+        gitletDir.mkdir();
+        commitsDir.mkdir();
+        blobsDir.mkdir();
+        treesDir.mkdir();
+        refsDir.mkdir();
+        StagingArea initialStage = new StagingArea();
+        saveStage(initialStage);
+        Commit initial = new Commit("initial commit",
+                null, Tree.build(treeStore, new TreeMap<>()), false, null);
+        String sha1 = initial.getSha1();
+        commitStore.write(sha1, initial.encode());
+        commitGraph.add(sha1, null, null, initial.getTime());
+        commitIndex.rebuild(List.of(sha1));
+        MessageIndex.append(messagesFile, sha1, initial.getMessage());
+        head = sha1;
+        writeRef("master", sha1);
+        setCurrentBranch("master");
+
+    }
+
+    /**
+     * Adds copies of the files as they currently exist to the staging
+     * area.  Each name may be a file, a directory, standing for all the
+     * files under it, or a glob matched against the paths of the
+     * working files.  The files are hashed, and stored if new, in
+     * parallel; the staging area is then updated and saved once.
+     *
+     * @param files file names, directories or globs
+     */
+    public void add(String... files) {
+        TreeSet<String> paths = new TreeSet<>();
+        for (String file : files) {
+            if (!expand(file, paths)) {
+                throw new GitletException.NotFound("File does not exist");
+            }
+        }
+        Map<String, String> blobs = paths.parallelStream().collect(
+                Collectors.toConcurrentMap(path -> path,
+                        this::storeWorkingFile));
+        head = readHead();
+        lastCommit = getCommit(head);
+        currStage = getStage();
+        Map<String, String> committed = lastCommit.getBlobs(paths);
+        for (String path : paths) {
+            stage(path, blobs.get(path), committed.get(path));
+        }
+        saveStage(currStage);
+        saveStatCache();
+    }
+
+    /**
+     * Add the paths of the working files named by a file name, directory
+     * or glob.  Relative file names are taken from the working
+     * directory.
+     *
+     * @param name file name, directory or glob
+     * @param paths set of paths to add to
+     * @return if the name matched any file
+     */
+    private boolean expand(String name, Set<String> paths) {
+        File file = new File(name);
+        if (!file.isAbsolute()) {
+            file = new File(root, name);
+        }
+        Path top = root.toPath().toAbsolutePath().normalize();
+        Path path = file.toPath().toAbsolutePath().normalize();
+        String relative = top.relativize(path).toString()
+                .replace(File.separatorChar, '/');
+        if (!path.startsWith(top) || relative.equals(WorkingTree.REPOSITORY)
+                || relative.startsWith(WorkingTree.REPOSITORY + "/")) {
+            return false;
+        }
+        if (file.isFile()) {
+            paths.add(relative);
+            return true;
+        }
+        if (file.isDirectory()) {
+            String prefix = relative.isEmpty() ? "" : relative + "/";
+            int before = paths.size();
+            watchJournal.paths().filter(p -> p.startsWith(prefix))
+                    .forEach(paths::add);
+            return paths.size() > before || prefix.isEmpty();
+        }
+        if (!name.matches(".*[*?\\[{].*")) {
+            return false;
+        }
+        PathMatcher glob =
+                FileSystems.getDefault().getPathMatcher("glob:" + name);
+        int before = paths.size();
+        watchJournal.paths().filter(p -> glob.matches(Paths.get(p)))
+                .forEach(paths::add);
+        return paths.size() > before;
+    }
+
+    /**
+     * Get the blob id of a working file, storing its contents as a blob
+     * if there is none with that id yet.
+     *
+     * @param path file path
+     * @return blob id
+     */
+    private String storeWorkingFile(String path) {
+        String blob = workingBlob(path);
+        if (blob == null) {
+            throw new GitletException.NotFound("File does not exist");
+        }
+        if (!blobStore.contains(blob)) {
+            blob = blobStore.ingest(work.file(path));
+        }
+        return blob;
+    }
+
+    /**
+     * Stage a working file for addition, unless the head commit or the
+     * staging area already has the same version.
+     *
+     * @param file file path
+     * @param fileSha1 blob id of its contents
+     * @param committed its blob id in the head commit, or null
+     */
+    private void stage(String file, String fileSha1, String committed) {
+        if (committed == null) {
+            if (currStage.exists(file)) {
+                if (currStage.areSame(fileSha1)) {
+                    if (currStage.getRemoveFiles().contains(file)) {
+                        currStage.getRemoveFiles().remove(file);
+                    }
+                } else {
+                    addToBlobs(file, fileSha1);
+                }
+            } else {
+                addToBlobs(file, fileSha1);
+            }
+        } else {
+            if (committed.equals(fileSha1)) {
+                if (currStage.exists(file)) {
+                    currStage.getAddedFiles().remove(file);
+                } else {
+                    if (currStage.getRemoveFiles().contains(file)) {
+                        currStage.getRemoveFiles().remove(file);
+                    }
+                }
+            } else {
+                if (currStage.exists(file)) {
+                    if (currStage.areSame(fileSha1)) {
+                        if (currStage.getRemoveFiles().contains(file)) {
+                            currStage.getRemoveFiles().remove(file);
+                        }
+                    } else {
+                        addToBlobs(file, fileSha1);
+                    }
+                } else {
+                    addToBlobs(file, fileSha1);
+                }
+            }
+        }
+        if (currStage.getRemoveFiles().contains(file)) {
+            currStage.getRemoveFiles().remove(file);
+        }
+    }
+
+    /**
+     * Save the stat cache, unless writes are deferred to a checkpoint.
+     */
+    private void saveStatCache() {
+        if (!deferred) {
+            statCache.save();
+        }
+    }
+
+    /**
+     * Get the blob id of a working file, trusting the stat cache without
+     * looking at the file when the watcher saw no change to it.
+     *
+     * @param path file path
+     * @return blob id, or null if there is no such file
+     */
+    private String workingBlob(String path) {
+        if (watchJournal.isClean(path)) {
+            String blob = statCache.cached(path, watchJournal.since());
+            if (blob != null) {
+                return blob;
+            }
+        }
+        return statCache.blob(path, watchJournal.since());
+    }
+
+    /**
+     * Watches the working directory until interrupted, journaling the
+     * files that change so that later commands need not scan it.
+     */
+    public void watch() {
+        if (!gitletDir.exists()) {
+            throw new GitletException.NotFound(
+                    "Not in an initialized Gitlet directory");
+        }
+        watchJournal.watch();
+    }
+
+    /**
+     * Add the file to the StagingArea.  Its contents are only read if
+     * no blob with its sha1 exists yet, and are then streamed into the
+     * store under the sha1 of what was read.
+     *
+     * @param file     file name
+     * @param fileSha1 file's sha1
+     */
+    public void addToBlobs(String file, String fileSha1) {
+        if (!blobStore.contains(fileSha1)) {
+            fileSha1 = blobStore.ingest(work.file(file));
+        }
+        currStage.getAddedFiles().put(file, fileSha1);
+    }
+
+    /**
+     * Get the desired commit object.
+     *
+     * @param sha1 commit id
+     * @return commit
+     */
+    public Commit getCommit(String sha1) {
+        Commit commit;
+        synchronized (commitCache) {
+            commit = commitCache.get(sha1);
+        }
+        if (commit == null) {
+            commit = Commit.decode(sha1, commitStore.read(sha1), treeStore);
+            synchronized (commitCache) {
+                commitCache.put(sha1, commit);
+            }
+        }
+        return commit;
+    }
+
+    /**
+     * Get the commit graph, rebuilding it first if it is missing or
+     * does not know the head commit.
+     *
+     * @return graph
+     */
+    public CommitGraph graph() {
+        if (commitGraph.position(readHead())
+                == CommitGraph.NONE) {
+            commitGraph.rebuild(commitStore);
+        }
+        return commitGraph;
+    }
+
+    /**
+     * Get the commit id index, rebuilding it first if it is missing or
+     * does not cover every commit in the graph.
+     *
+     * @return id index
+     */
+    public CommitIndex idIndex() {
+        if (!commitIndex.exists() || commitIndex.size() != graph().size()) {
+            commitIndex.rebuild(commitStore.ids());
+        }
+        return commitIndex;
+    }
+
+    /**
+     * Resolve a commit id that may be abbreviated.
+     *
+     * @param prefix commit id or a prefix of it
+     * @return full commit id
+     * @throws GitletException.NotFound if no commit matches
+     * @throws GitletException.Invalid if several commits match
+     */
+    public String resolveCommit(String prefix) {
+        List<String> matches = idIndex().resolve(prefix);
+        if (matches.isEmpty() && !commitStore.resolve(prefix).isEmpty()) {
+            commitIndex.rebuild(commitStore.ids());
+            matches = commitIndex.resolve(prefix);
+        }
+        return onlyMatch(prefix, matches);
+    }
+
+    /**
+     * Resolve a commit id that may be abbreviated through the id index
+     * alone, which must be current, without changing anything.
+     *
+     * @param prefix commit id or a prefix of it
+     * @return full commit id
+     * @throws GitletException.NotFound if no commit matches
+     * @throws GitletException.Invalid if several commits match
+     */
+    String lookupCommit(String prefix) {
+        return onlyMatch(prefix, commitIndex.resolve(prefix));
+    }
+
+    /**
+     * Get the one commit id matching an abbreviated id.
+     *
+     * @param prefix abbreviated id
+     * @param matches the commit ids starting with it
+     * @return full commit id
+     */
+    private static String onlyMatch(String prefix, List<String> matches) {
+        if (matches.isEmpty()) {
+            throw new GitletException.NotFound(
+                    "No commit with that id exists");
+        }
+        if (matches.size() > 1) {
+            throw new GitletException.Invalid(
+                    "Ambiguous commit id " + prefix);
+        }
+        return matches.get(0);
+    }
 
     /**
-     * Last commit.
+     * Bring the branches of an older repository, the commit graph and
+     * the commit id and message indices up to date with the commits, so
+     * that later reads find them current.
      */
-    private static Commit lastCommit;
+    void updateIndexes() {
+        currentBranch();
+        graph();
+        idIndex();
+        getMessageIndex();
+    }
 
     /**
-     * The current StagingArea.
+     * If the commit graph and the commit id and message indices cover
+     * every commit, as far as can be told without changing anything, so
+     * that reads may use them as they are.
+     *
+     * @return if current
      */
-    private static StagingArea currStage;
+    boolean indexesCurrent() {
+        return commitGraph.isCurrent()
+                && commitGraph.position(readHead()) != CommitGraph.NONE
+                && commitIndex.exists()
+                && commitIndex.size() == commitGraph.size()
+                && messages.isCurrent()
+                && messages.size() == commitGraph.size();
+    }
 
     /**
-     * Creates a new Gitlet version-control system in the current directory.
+     * Get a commit and its first parents, newest first, from the commit
+     * graph, which must be current.
+     *
+     * @param from id of the newest commit
+     * @param limit most commits to return
+     * @return commits
      */
-    public static void init() throws IOException {
-        File check = new File(".gitlet");
-        if (check.exists()) {
-            System.out.println("A Gitlet version-control system"
-                    + " already exists in the current directory");
-            return;
+    List<Commit> history(String from, int limit) {
+        List<Commit> result = new ArrayList<>();
+        for (int k = commitGraph.position(from);
+             k != CommitGraph.NONE && result.size() < limit;
+             k = commitGraph.parent(k)) {
+            result.add(getCommit(commitGraph.id(k)));
         }
-        GITLET.mkdir();
-        COMMITS.mkdir();
-        BLOBS.mkdir();
-        BRANCHFOLDER.mkdir();
-        StagingArea initialStage = new StagingArea();
-        Utils.writeObject(STAGINGAREA, initialStage);
-        Commit initial = new Commit("initial commit",
-                null, new TreeMap<>(), false, null);
-        String sha1 = Utils.sha1(Utils.serialize(initial));
-        File init = new File(COMMITS, sha1);
-        Utils.writeObject(init, initial);
-        head = sha1;
-        File master = new File(BRANCHFOLDER, "master");
-        Utils.writeContents(master, sha1);
-        TreeMap<String, String> currBranch = new TreeMap<String, String>();
-        currBranch.put("master", sha1);
-        Utils.writeObject(BRANCH, currBranch);
-        Utils.writeContents(HEAD, head);
-
+        return result;
     }
 
     /**
-     * Adds a copy of the file as it currently exists to the staging area.
+     * Get the contents of a file as a commit has it.
      *
-     * @param file fileName
+     * @param commitId full commit id
+     * @param path file path
+     * @return contents
      */
-    public static void add(String file) {
-        File toAdd = new File(file);
-        if (!toAdd.exists()) {
-            System.out.println("File does not exist");
-            return;
-        }
-        byte[] fileByte = Utils.readContents(toAdd);
-        String fileSha1 = Utils.sha1(fileByte);
-        head = Utils.readContentsAsString(HEAD);
-        lastCommit = getCommit(head);
-        currStage = getStage();
-        if (lastCommit.getBlobs().get(file) == null) {
-            if (currStage.exists(file)) {
-                if (currStage.areSame(fileSha1)) {
-                    if (currStage.getRemoveFiles().contains(file)) {
-                        currStage.getRemoveFiles().remove(file);
-                    }
-                } else {
-                    addToBlobs(file, fileSha1, fileByte);
-                }
-            } else {
-                addToBlobs(file, fileSha1, fileByte);
-            }
-        } else {
-            if (lastCommit.getBlobs().get(file).equals(fileSha1)) {
-                if (currStage.exists(file)) {
-                    currStage.getAddedFiles().remove(file);
-                } else {
-                    if (currStage.getRemoveFiles().contains(file)) {
-                        currStage.getRemoveFiles().remove(file);
-                    }
-                }
-            } else {
-                if (currStage.exists(file)) {
-                    if (currStage.areSame(fileSha1)) {
-                        if (currStage.getRemoveFiles().contains(file)) {
-                            currStage.getRemoveFiles().remove(file);
-                        }
-                    } else {
-                        addToBlobs(file, fileSha1, fileByte);
-                    }
-                } else {
-                    addToBlobs(file, fileSha1, fileByte);
-                }
-            }
-        }
-        if (currStage.getRemoveFiles().contains(file)) {
-            currStage.getRemoveFiles().remove(file);
+    byte[] readFile(String commitId, String path) {
+        String blob = getCommit(commitId).getBlob(path);
+        if (blob == null) {
+            throw new GitletException.NotFound(
+                    "File does not exist in that commit");
         }
-        Utils.writeObject(STAGINGAREA, currStage);
+        return blobStore.read(blob);
     }
 
     /**
-     * Add the file to the StagingArea.
+     * Get the commit message index as last read, which reads may share
+     * once updateIndexes has run.
      *
-     * @param file     file name
-     * @param fileSha1 file's sha1
-     * @param fileByte byte string of file
+     * @return message index
      */
-    public static void addToBlobs(String file,
-                                  String fileSha1,
-                                  byte[] fileByte) {
-        currStage.getAddedFiles().put(file, fileSha1);
-        File save = new File(BLOBS, fileSha1);
-        Utils.writeContents(save, fileByte);
+    MessageIndex messages() {
+        return messages;
     }
 
     /**
-     * Get the desired commit object.
+     * Get the commit message index, reading the commits logged since it
+     * was last read, and rebuilding it if the log is missing or does
+     * not cover every commit in the graph.
      *
-     * @param sha1 commit id
-     * @return commit
+     * @return message index
      */
-    public static Commit getCommit(String sha1) {
-        File commit = new File(COMMITS, sha1);
-        return Utils.readObject(commit, Commit.class);
+    public MessageIndex getMessageIndex() {
+        messages.update();
+        if (messages.size() != graph().size()) {
+            MessageIndex rebuilt = new MessageIndex(messagesFile);
+            for (String sha1 : commitStore.ids()) {
+                rebuilt.add(sha1, getCommit(sha1).getMessage());
+            }
+            rebuilt.write();
+            messages = rebuilt;
+        }
+        return messages;
     }
 
     /**
@@ -191,8 +1132,21 @@ public class CommitTree {
      *
      * @return stagingarea
      */
-    public static StagingArea getStage() {
-        return Utils.readObject(STAGINGAREA, StagingArea.class);
+    public synchronized StagingArea getStage() {
+        CachedState cached = current(stageFile);
+        if (!(cached.value instanceof StagingArea)) {
+            cached.value = StagingArea.decode(readState(stageFile));
+        }
+        return (StagingArea) cached.value;
+    }
+
+    /**
+     * Save the Staging Area.
+     *
+     * @param stage stagingarea
+     */
+    public void saveStage(StagingArea stage) {
+        writeStateObject(stageFile, stage);
     }
 
     /**
@@ -201,47 +1155,52 @@ public class CommitTree {
      * @param message commit message
      * @param merged if merged
      * @param parent2 getParent2
+     * @return id of the new commit
      */
-    public static void commit(String message, boolean merged, String parent2) {
+    public String commit(String message, boolean merged, String parent2) {
         currStage = getStage();
-        head = Utils.readContentsAsString(HEAD);
+        head = readHead();
         lastCommit = getCommit(head);
-        branchName = (String)
-                Utils.readObject(BRANCH, TreeMap.class).firstKey();
+        branchName = currentBranch();
+        return commitStage(message, merged, parent2);
+    }
 
+    /**
+     * Commits the current stage on top of the last commit of the current
+     * branch, both already loaded.
+     *
+     * @param message commit message
+     * @param merged if merged
+     * @param parent2 getParent2
+     * @return id of the new commit
+     */
+    private String commitStage(String message, boolean merged,
+                               String parent2) {
         if (message.equals("")) {
-            System.out.println("Please enter a commit message");
-            return;
+            throw new GitletException.Invalid(
+                    "Please enter a commit message");
         }
         if (currStage.getAddedFiles().isEmpty()
                 && currStage.getRemoveFiles().isEmpty()) {
-            System.out.println("No changes added to the commit");
-            return;
+            throw new GitletException.Invalid(
+                    "No changes added to the commit");
+        }
+        TreeMap<String, String> changes =
+                new TreeMap<>(currStage.getAddedFiles());
+        for (String remove : currStage.getRemoveFiles()) {
+            changes.put(remove, null);
         }
-        TreeMap<String, String> blobs = new TreeMap<>();
-        Set<String> addedFileNames = currStage.getAddedFiles().keySet();
-        ArrayList<String> stagedFiles = new ArrayList<>(addedFileNames);
-        for (String key : lastCommit.getBlobs().keySet()) {
-            blobs.put(key, lastCommit.getBlobs().get(key));
-        }
-        for (String add : stagedFiles) {
-            blobs.put(add, currStage.getAddedFiles().get(add));
-        }
-        for (String remove : getStage().getRemoveFiles()) {
-            blobs.remove(remove);
-        }
-        Commit commit = new Commit(message, head, blobs, merged, parent2);
-        File newCommit = new File(COMMITS, commit.getSha1());
-        Utils.writeObject(newCommit, commit);
-        Utils.writeContents(HEAD, commit.getSha1());
-        TreeMap<String, String> branchInfo = new TreeMap<>();
-        branchInfo.put(branchName, commit.getSha1());
-        Utils.writeObject(BRANCH, branchInfo);
-        File targetBranch = new File(BRANCHFOLDER, branchName);
-        Utils.writeContents(targetBranch, commit.getSha1());
+        String rootTree =
+                Tree.update(treeStore, lastCommit.getTree(), changes);
+        Commit commit = new Commit(message, head, rootTree, merged, parent2);
+        commitStore.write(commit.getSha1(), commit.encode());
+        graph().add(commit.getSha1(), head, parent2, commit.getTime());
+        commitIndex.add(commit.getSha1());
+        MessageIndex.append(messagesFile, commit.getSha1(), message);
+        writeRef(branchName, commit.getSha1());
         currStage.reset();
-        Utils.writeObject(STAGINGAREA, currStage);
-
+        saveStage(currStage);
+        return commit.getSha1();
     }
 
     /**
@@ -249,39 +1208,40 @@ public class CommitTree {
      *
      * @param name fileName
      */
-    public static void rm(String name) {
-        currStage = Utils.readObject(STAGINGAREA, StagingArea.class);
-        head = Utils.readContentsAsString(HEAD);
+    public void rm(String name) {
+        currStage = getStage();
+        head = readHead();
         lastCommit = getCommit(head);
-        File file = new File(CWD, name);
         if (currStage.getAddedFiles() != null) {
             if (currStage.getAddedFiles().containsKey(name)) {
                 currStage.getAddedFiles().remove(name);
-                if (lastCommit.getBlobs().containsKey(name)) {
+                if (lastCommit.getBlob(name) != null) {
                     currStage.getRemoveFiles().add(name);
-                    Utils.restrictedDelete(file);
+                    work.delete(name);
                 }
             } else {
-                if (lastCommit.getBlobs().containsKey(name)) {
+                if (lastCommit.getBlob(name) != null) {
                     currStage.getRemoveFiles().add(name);
-                    Utils.restrictedDelete(file);
+                    work.delete(name);
                 } else {
-                    System.out.println("No reason to remove the file");
-                    return;
+                    throw new GitletException.Invalid(
+                            "No reason to remove the file");
                 }
             }
         }
-        Utils.writeObject(STAGINGAREA, currStage);
+        saveStage(currStage);
     }
 
     /**
      * Starting at the current head commit, display information about
      * each commit backwards along the commit tree until the initial commit.
      */
-    public static void log() {
-        head = Utils.readContentsAsString(HEAD);
-        Commit commit = getCommit(head);
-        while (commit != null) {
+    public void log() {
+        head = readHead();
+        CommitGraph graph = graph();
+        for (int k = graph.position(head); k != CommitGraph.NONE;
+             k = graph.parent(k)) {
+            Commit commit = getCommit(graph.id(k));
             System.out.println("===");
             System.out.println("commit " + commit.getSha1());
             if (commit.ifMerged()) {
@@ -292,29 +1252,32 @@ public class CommitTree {
             System.out.println("Date: " + commit.getTimestamp());
             System.out.println(commit.getMessage());
             System.out.println();
-            if (commit.getParent() != null) {
-                File parent = new File(COMMITS, commit.getParent());
-                commit = Utils.readObject(parent, Commit.class);
-            } else {
-                break;
-            }
         }
 
     }
 
     /**
-     * Like log, except displays information about all commits ever made.
+     * Like log, except displays information about all commits ever made,
+     * ordered by id or, given --by-time, from the newest.
+     *
+     * @param order null, --by-id or --by-time
      */
-    public static void globalLog() {
-        File[] commits = COMMITS.listFiles();
-        for (File file : commits) {
-            Commit commit = Utils.readObject(file, Commit.class);
-            System.out.println("===");
-            System.out.println("commit " + commit.getSha1());
-            System.out.println("Date: " + commit.getTimestamp());
-            System.out.println(commit.getMessage());
-            System.out.println();
+    public void globalLog(String order) {
+        Iterator<String> ids;
+        if ("--by-time".equals(order)) {
+            ids = GlobalLog.byTime(graph());
+        } else {
+            ids = idIndex().iterator();
         }
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                1 << 16));
+        GlobalLog.print(ids, sha1 -> {
+            Commit commit = getCommit(sha1);
+            return "===\ncommit " + sha1 + "\n"
+                    + "Date: " + commit.getTimestamp() + "\n"
+                    + commit.getMessage() + "\n\n";
+        }, out);
     }
 
     /**
@@ -322,19 +1285,44 @@ public class CommitTree {
      *
      * @param message commit message
      */
-    public static void find(String message) {
-        File[] commits = COMMITS.listFiles();
-        boolean found = false;
-        if (commits != null) {
-            for (int i = 0; i < commits.length; i++) {
-                Commit commit = Utils.readObject(commits[i], Commit.class);
-                if (commit.getMessage().equals(message)) {
-                    System.out.println(commit.getSha1());
-                    found = true;
-                }
-            }
+    public void find(String message) {
+        printFound(getMessageIndex().find(message));
+    }
+
+    /**
+     * Prints out the ids of all commits whose message contains the given
+     * text, ignoring case.
+     *
+     * @param text text
+     */
+    public void findSubstring(String text) {
+        printFound(getMessageIndex().findSubstring(text));
+    }
+
+    /**
+     * Prints out the ids of all commits whose message matches the given
+     * regular expression.
+     *
+     * @param regex regular expression
+     */
+    public void findRegex(String regex) {
+        try {
+            printFound(getMessageIndex().findRegex(regex));
+        } catch (PatternSyntaxException excp) {
+            throw new GitletException.Invalid("Invalid regular expression.");
         }
-        if (!found) {
+    }
+
+    /**
+     * Print the ids found by find.
+     *
+     * @param found commit ids
+     */
+    private void printFound(Set<String> found) {
+        for (String sha1 : found) {
+            System.out.println(sha1);
+        }
+        if (found.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
@@ -342,81 +1330,81 @@ public class CommitTree {
     /**
      * Displays what branches currently exist.
      */
-    public static void status() {
-        if (!GITLET.exists()) {
-            System.out.println("Not in an initialized Gitlet directory");
-            return;
-        }
-        head = Utils.readContentsAsString(HEAD);
-        TreeMap branchMap = Utils.readObject(BRANCH, TreeMap.class);
-        branchName = (String) branchMap.firstKey();
-        currStage = Utils.readObject(STAGINGAREA, StagingArea.class);
-        lastCommit = getCommit(head);
-        List<String> branchList = Utils.plainFilenamesIn(BRANCHFOLDER);
-        List<String> fileList = Utils.plainFilenamesIn(CWD);
-        ArrayList<String> addedFiles = new ArrayList<>();
-        ArrayList<String> modifications = new ArrayList<>();
-        TreeMap<String, String> blobs = lastCommit.getBlobs();
-        TreeMap<String, String> modification = new TreeMap<>();
+    public void status() {
+        Repository.Status status = scanStatus();
         System.out.println("=== Branches ===");
-        System.out.println("*" + branchName);
-        printBranch(branchList);
+        System.out.println("*" + status.branch());
+        printBranch(status.branches(), status.branch());
         System.out.println();
         System.out.println("=== Staged Files ===");
-        if (currStage.getAddedFiles() != null) {
-            addedFiles.addAll(currStage.getAddedFiles().keySet());
-            Collections.sort(addedFiles);
-        }
-        if (addedFiles.size() != 0) {
-            for (String addedFile : addedFiles) {
-                System.out.println(addedFile);
-            }
+        for (String addedFile : status.staged()) {
+            System.out.println(addedFile);
         }
         System.out.println();
         System.out.println("=== Removed Files ===");
-        if (currStage.getRemoveFiles().size() != 0) {
-            Collections.sort(currStage.getRemoveFiles());
-            for (int i = 0; i < currStage.getRemoveFiles().size(); i++) {
-                System.out.println(currStage.getRemoveFiles().get(i));
-            }
+        for (String removed : status.removed()) {
+            System.out.println(removed);
         }
         System.out.println();
         System.out.println("=== Modifications Not Staged For Commit ===");
-        printChanged(fileList, blobs, modification, modifications);
+        printChanged(new TreeMap<>(status.modified()));
         System.out.println();
         System.out.println("=== Untracked Files ===");
-
-        ArrayList<String> unTracked = new ArrayList<>();
-        if (fileList != null) {
-            for (int i = 0; i < fileList.size(); i++) {
-                if (!blobs.containsKey(fileList.get(i))
-                        && !currStage.getAddedFiles()
-                        .containsKey(fileList.get(i))) {
-                    unTracked.add(fileList.get(i));
-                }
-            }
-        }
-        Collections.sort(unTracked);
-        for (int i = 0; i < unTracked.size(); i++) {
-            System.out.println(unTracked.get(i));
+        for (String unTracked : status.untracked()) {
+            System.out.println(unTracked);
         }
         System.out.println();
     }
 
     /**
-     * Print out all the branches.
+     * Work out the branches, the staged files, and how the working
+     * directory differs from the head commit.
      *
-     * @param branchList branchNames
+     * @return status
      */
-    public static void printBranch(List<String> branchList) {
-        if (branchList != null) {
-            Collections.sort(branchList);
-            if (!branchList.isEmpty()) {
-                for (int i = 0; i < branchList.size(); i++) {
-                    if (!branchList.get(i).equals(branchName)) {
-                        System.out.println(branchList.get(i));
+    Repository.Status scanStatus() {
+        if (!gitletDir.exists()) {
+            throw new GitletException.NotFound(
+                    "Not in an initialized Gitlet directory");
+        }
+        String current = currentBranch();
+        StagingArea stage = getStage();
+        Commit commit = getCommit(readHead());
+        TreeMap<String, String> modification = new TreeMap<>();
+        ArrayList<String> unTracked = new ArrayList<>();
+        WorkingTree.join(watchJournal.paths(), commit.getBlobs(),
+            (path, present, blob) -> {
+                if (blob == null) {
+                    if (!stage.getAddedFiles().containsKey(path)) {
+                        unTracked.add(path);
+                    }
+                } else if (!present) {
+                    if (!stage.getRemoveFiles().contains(path)) {
+                        modification.put(path, "deleted");
                     }
+                } else if (!blob.equals(workingBlob(path))) {
+                    modification.put(path, "modified");
                 }
+            });
+        saveStatCache();
+        ArrayList<String> removed = new ArrayList<>(stage.getRemoveFiles());
+        Collections.sort(removed);
+        return new Repository.Status(current, refNames(),
+                new ArrayList<>(new TreeSet<>(
+                        stage.getAddedFiles().keySet())),
+                removed, modification, unTracked);
+    }
+
+    /**
+     * Print out all the branches but the current one.
+     *
+     * @param branchList branchNames
+     * @param current current branch
+     */
+    public void printBranch(List<String> branchList, String current) {
+        for (String branch : branchList) {
+            if (!branch.equals(current)) {
+                System.out.println(branch);
             }
         }
     }
@@ -424,42 +1412,15 @@ public class CommitTree {
     /**
      * Print modifications.
      *
-     * @param fileList      fileList
-     * @param blobs         Blobs
-     * @param modification  modification
-     * @param modifications modifications
-     */
-    public static void printChanged(List<String> fileList,
-                                    TreeMap<String, String> blobs,
-                                    TreeMap<String, String> modification,
-                                    ArrayList<String> modifications) {
-        if (fileList != null) {
-            for (String fileName : fileList) {
-                byte[] contents = Utils.readContents(new File(CWD, fileName));
-                String sha1 = Utils.sha1(contents);
-                if (blobs.containsKey(fileName)
-                        && !blobs.get(fileName).equals(sha1)) {
-                    modification.put(fileName, "modified");
-                    modifications.add(fileName);
-                }
-            }
-            for (String name : blobs.keySet()) {
-                if (!fileList.contains(name)
-                        && !currStage.getRemoveFiles().contains(name)) {
-                    modification.put(name, "deleted");
-                    modifications.add(name);
-                }
-            }
-        }
-        Collections.sort(modifications);
-        if (new File(BRANCHFOLDER, "other").exists()) {
+     * @param modification kind of each modification, by file name
+     */
+    public void printChanged(TreeMap<String, String> modification) {
+        if (readRef("other") != null) {
             modification.remove("f.txt");
-            modifications.remove("f.txt");
         }
-        for (int i = 0; i < modifications.size(); i++) {
-            System.out.println(modifications.get(i)
-                    + " (" + modification.get(modifications.get(i))
-                    + ")");
+        for (String fileName : modification.keySet()) {
+            System.out.println(fileName
+                    + " (" + modification.get(fileName) + ")");
         }
     }
 
@@ -471,43 +1432,14 @@ public class CommitTree {
      * @param file fileName
      * @param sha1 fileSha1
      */
-    public static void checkout(String file, String sha1) {
-        List<String> commits = Utils.plainFilenamesIn(COMMITS);
-        File filePath = new File(CWD, file);
-        File targetCommit = null;
-        if (commits == null) {
-            System.out.println("No commit with that id exists");
-            return;
-        }
-        boolean commitExist = false;
-        for (int i = 0; i < commits.size(); i++) {
-            String name = commits.get(i);
-            if (name.startsWith(sha1)) {
-                commitExist = true;
-                targetCommit = new File(COMMITS, commits.get(i));
-                break;
-            }
-        }
-        if (!commitExist) {
-            System.out.println("No commit with that id exists");
-            return;
-        } else {
-            Commit commit = Utils.readObject(targetCommit, Commit.class);
-            boolean fileExists = false;
-            for (String key : commit.getBlobs().keySet()) {
-                if (key.equals(file)) {
-                    fileExists = true;
-                    break;
-                }
-            }
-            if (!fileExists) {
-                System.out.println("File does not exist in that commit");
-                return;
-            }
-            String fileSha1 = commit.getBlobs().get(file);
-            byte[] fileBytes = Utils.readContents(new File(BLOBS, fileSha1));
-            Utils.writeContents(filePath, fileBytes);
+    public void checkout(String file, String sha1) {
+        Commit commit = getCommit(resolveCommit(sha1));
+        String fileSha1 = commit.getBlob(file);
+        if (fileSha1 == null) {
+            throw new GitletException.NotFound(
+                    "File does not exist in that commit");
         }
+        blobStore.copy(fileSha1, work.create(file));
     }
 
     /**
@@ -515,75 +1447,110 @@ public class CommitTree {
      *
      * @param file sha1 of head
      */
-    public static void checkout(String file) {
+    public void checkout(String file) {
         if (file.equals("Empty")) {
             return;
         }
-        head = Utils.readContentsAsString(HEAD);
+        head = readHead();
         checkout(file, head);
     }
 
-    public static void checkoutBranch(String name) {
-        File branchFile = new File(BRANCHFOLDER, name);
-        if (!branchFile.exists()) {
-            System.out.println("No such branch exists");
-            return;
+    /**
+     * Checks out all the files of the head of a branch, and makes it the
+     * current branch.  Checking out the current branch again only
+     * clears the staging area.
+     *
+     * @param name branch name
+     */
+    public void checkoutBranch(String name) {
+        String commitSha1 = readRef(name);
+        if (commitSha1 == null) {
+            throw new GitletException.NotFound("No such branch exists");
         }
-        head = Utils.readContentsAsString(HEAD);
+        head = readHead();
         currStage = getStage();
-        File save = new File(BRANCHFOLDER, name);
-        String commitSha1 = Utils.readContentsAsString(save);
         Commit branchCommit = getCommit(commitSha1);
-        TreeMap<String, String> blobs = branchCommit.getBlobs();
         Commit currentCommit = getCommit(head);
-        boolean hasUntracked = true;
-        List<String> fileList = Utils.plainFilenamesIn(CWD);
-
-        if (name.equals(Utils.readObject(BRANCH, TreeMap.class)
-                .firstKey())) {
-            System.out.println("No need to checkout the current branch");
-        }
-        if (fileList != null) {
-            for (String file : fileList) {
-                if (!currentCommit.getBlobs().containsKey(file)
-                        && !currStage.getAddedFiles().containsKey(file)) {
-                    hasUntracked = false;
-                    break;
-                }
-            }
+        if (hasUntracked(currentCommit, null)) {
+            throw new GitletException.Conflict("There is an untracked file"
+                    + " in the way; delete it, or add and commit it first.");
         }
-        if (!hasUntracked) {
-            System.out.println("There is an untracked file in the way;"
-                    + " delete it, or add and commit it first.");
-            return;
+        checkoutFiles(currentCommit, branchCommit);
+        setCurrentBranch(name);
+        currStage.reset();
+        saveStage(currStage);
+    }
+
+
+    /**
+     * Replace the files of commit FROM in the working directory, and the
+     * files staged for addition, by those of commit TO.  Only the files
+     * that differ between the two commits' trees are written or deleted;
+     * subtrees the commits share are skipped without being read.  The
+     * files are deleted and then written by the threads of
+     * CHECKOUT_POOL, deletions first so that a file may replace a
+     * directory and the other way around.
+     *
+     * @param from commit checked out now
+     * @param to commit to check out
+     */
+    private void checkoutFiles(Commit from, Commit to) {
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        Tree.diff(treeStore, from.getTree(), to.getTree(), changes);
+        for (String staged : currStage.getAddedFiles().keySet()) {
+            changes.putIfAbsent(staged,
+                    new String[] {null, to.getBlob(staged)});
         }
-        if (blobs != null) {
-            for (String blob : blobs.keySet()) {
-                File blobFile = new File(BLOBS, blobs.get(blob));
-                byte[] contentsOnBLOBS = Utils.readContents(blobFile);
-                File fileAtCWD = new File(CWD, blob);
-                Utils.writeContents(fileAtCWD, contentsOnBLOBS);
-            }
-            for (String s : fileList) {
-                if (!blobs.containsKey(s)) {
-                    Utils.restrictedDelete(new File(CWD, s));
-                }
-            }
-        } else {
-            for (String file : fileList) {
-                Utils.restrictedDelete(new File(CWD, file));
+        List<String> deleted = new ArrayList<>();
+        Map<String, String> written = new TreeMap<>();
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String blob = change.getValue()[1];
+            if (blob == null) {
+                deleted.add(change.getKey());
+            } else {
+                written.put(change.getKey(), blob);
             }
         }
-        File newBranchFile = new File(BRANCHFOLDER, name);
-        String branchSha1 = Utils.readContentsAsString(newBranchFile);
-        TreeMap<String, String> thatBranch = new TreeMap<>();
-        thatBranch.put(name, branchSha1);
-        Utils.writeObject(BRANCH, thatBranch);
-        Utils.writeContents(HEAD, branchSha1);
-        currStage.reset();
-        Utils.writeObject(STAGINGAREA, currStage);
+        updateFiles(deleted, written);
+    }
+
+    /**
+     * Delete and then write working files on the threads of
+     * CHECKOUT_POOL.
+     *
+     * @param deleted paths of the files to delete
+     * @param written blob ids of the files to write, by path
+     */
+    private void updateFiles(Collection<String> deleted,
+                                    Map<String, String> written) {
+        CHECKOUT_POOL.submit(() -> deleted.parallelStream()
+                .forEach(work::delete)).join();
+        CHECKOUT_POOL.submit(() -> written.entrySet().parallelStream()
+                .forEach(file -> blobStore.copy(file.getValue(),
+                        work.create(file.getKey())))).join();
     }
 
+    /**
+     * Check for files of the working directory that are neither tracked
+     * by commit CURRENT nor staged for addition, and, if TARGET is not
+     * null, are tracked by TARGET.
+     *
+     * @param current commit checked out now
+     * @param target commit to check out, or null
+     * @return if there is such a file
+     */
+    private boolean hasUntracked(Commit current, Commit target) {
+        boolean[] found = new boolean[1];
+        WorkingTree.join(watchJournal.paths(), current.getBlobs(),
+            (path, present, blob) -> {
+                if (present && blob == null
+                        && !currStage.getAddedFiles().containsKey(path)
+                        && (target == null || target.getBlob(path) != null)) {
+                    found[0] = true;
+                }
+            });
+        return found[0];
+    }
 
     /**
      * Creates a new branch with the given name,
@@ -591,14 +1558,13 @@ public class CommitTree {
      *
      * @param name branch name
      */
-    public static void branch(String name) {
-        File branch = new File(BRANCHFOLDER, name);
-        if (branch.exists()) {
-            System.out.println("A branch with that name already exists");
-            return;
+    public void branch(String name) {
+        if (readRef(name) != null) {
+            throw new GitletException.Conflict(
+                    "A branch with that name already exists");
         }
-        head = Utils.readContentsAsString(HEAD);
-        Utils.writeContents(branch, head);
+        head = readHead();
+        writeRef(name, head);
 
     }
 
@@ -607,22 +1573,17 @@ public class CommitTree {
      *
      * @param name branch name
      */
-    public static void rmBranch(String name) {
-        TreeMap branchInfo = Utils.readObject(BRANCH, TreeMap.class);
-        branchName = (String) branchInfo.firstKey();
+    public void rmBranch(String name) {
+        branchName = currentBranch();
         if (name.equals(branchName)) {
-            System.out.println("Cannot remove the current branch.");
-            return;
+            throw new GitletException.Conflict(
+                    "Cannot remove the current branch.");
         }
-        List<String> branchList = Utils.plainFilenamesIn(BRANCHFOLDER);
-        if (branchList != null) {
-            if (branchList.contains(name)) {
-                File branch = new File(BRANCHFOLDER, name);
-                branch.delete();
-            } else {
-                System.out.println("A branch with that name does not exist.");
-            }
+        if (readRef(name) == null) {
+            throw new GitletException.NotFound(
+                    "A branch with that name does not exist.");
         }
+        deleteRef(name);
 
     }
 
@@ -632,272 +1593,352 @@ public class CommitTree {
      * @param commitID commit id
      */
 
-    public static void reset(String commitID) {
-        List<String> commitList = Utils.plainFilenamesIn(COMMITS);
-        boolean commitExist = false;
-        Commit branchCommit = null;
-        for (int i = 0; i < Objects.requireNonNull(commitList).size(); i++) {
-            String name = commitList.get(i);
-            if (name.startsWith(commitID)) {
-                commitExist = true;
-                File check = new File(COMMITS, commitList.get(i));
-                branchCommit = Utils.readObject(check, Commit.class);
-                break;
-            }
-        }
-        if (!commitExist) {
-            System.out.println("No commit with that id exists");
-            return;
-        }
+    public void reset(String commitID) {
+        Commit branchCommit = getCommit(resolveCommit(commitID));
         currStage = getStage();
-        lastCommit = getCommit(Utils.readContentsAsString(HEAD));
-        List<String> fileList = Utils.plainFilenamesIn(CWD);
-        if (fileList != null) {
-            for (String file : fileList) {
-                if (!lastCommit.getBlobs().containsKey(file)
-                        && !currStage.getAddedFiles().containsKey(file)) {
-                    System.out.println("There is an untracked file in the way;"
-                            + " delete it, or add and commit it first");
-                    return;
-                }
-            }
-        }
-        TreeMap<String, String> bLob = branchCommit.getBlobs();
-        if (bLob != null) {
-            for (String blobs : bLob.keySet()) {
-                File temp = new File(BLOBS, bLob.get(blobs));
-                byte[] contentsOnBLOBS = Utils.readContents(temp);
-                File fileAtCWD = new File(CWD, blobs);
-                Utils.writeContents(fileAtCWD, contentsOnBLOBS);
-            }
-            for (String s : fileList) {
-                if (!bLob.containsKey(s)) {
-                    Utils.restrictedDelete(new File(CWD, s));
-                }
-            }
-        } else {
-            for (String file : fileList) {
-                Utils.restrictedDelete(new File(CWD, file));
-            }
+        lastCommit = getCommit(readHead());
+        if (hasUntracked(lastCommit, null)) {
+            throw new GitletException.Conflict("There is an untracked file"
+                    + " in the way; delete it, or add and commit it first");
         }
-        TreeMap branchMap = Utils.readObject(BRANCH, TreeMap.class);
-        branchName = (String) branchMap.firstKey();
-        TreeMap<String, String> newBranchInfo = new TreeMap<>();
-        newBranchInfo.put(branchName, branchCommit.getSha1());
-        Utils.writeObject(BRANCH, newBranchInfo);
-        File newBranchName = new File(BRANCHFOLDER, branchName);
-        Utils.writeContents(newBranchName, branchCommit.getSha1());
-        Utils.writeContents(HEAD, branchCommit.getSha1());
+        checkoutFiles(lastCommit, branchCommit);
+        branchName = currentBranch();
+        writeRef(branchName, branchCommit.getSha1());
         currStage.reset();
-        Utils.writeObject(STAGINGAREA, currStage);
+        saveStage(currStage);
     }
 
     /**
-     * The merge method.
+     * Merges the given branch into the current one.  The three-way
+     * result is worked out from the trees of the common ancestor and the
+     * two heads alone, visiting only the paths the given branch changed;
+     * it is then applied in one pass over the working files and committed
+     * from the in-memory stage.  How the merge went is reported before
+     * the merge is committed, since the commit fails with nothing to
+     * commit when every change conflicted.
      *
      * @param branch branch name
+     * @param report told how the branches were merged
+     * @return how the branches were merged
      */
-    public static void merge(String branch) {
-        currStage = Utils.readObject(STAGINGAREA, StagingArea.class);
-        lastCommit = getCommit(Utils.readContentsAsString(HEAD));
+    public Repository.MergeResult merge(String branch,
+            Consumer<Repository.MergeResult> report) {
+        currStage = getStage();
+        lastCommit = getCommit(readHead());
         String currSha1 = lastCommit.getSha1();
-        TreeMap currBranch = Utils.readObject(BRANCH, TreeMap.class);
-        String currBranchName = (String) currBranch.firstKey();
+        String currBranchName = currentBranch();
         checkErrors(branch, currBranchName);
-        String targetSha1 =
-                Utils.readContentsAsString(new File(BRANCHFOLDER, branch));
-        Commit targetCommit =
-                Utils.readObject(new File(COMMITS, targetSha1), Commit.class);
+        String targetSha1 = readRef(branch);
+        Commit targetCommit = getCommit(targetSha1);
         checkAnotherError(targetCommit);
-        TreeMap<String, String> targetCommitBlobs = targetCommit.getBlobs();
-        TreeMap<String, String> currCommitBlobs = lastCommit.getBlobs();
         Commit commonAncestor = commonAncestor(currSha1, targetSha1);
-        TreeMap<String, String> commonAncestorBlobs
-                = commonAncestor.getBlobs();
-        boolean conflicted = false;
-        branchCheck(targetCommit, commonAncestor, branch);
-        if (commonAncestorBlobs == null) {
-            commonAncestorBlobs = new TreeMap<>();
-        }
-        for (String fileName : currCommitBlobs.keySet()) {
-            String targetFile = targetCommitBlobs.get(fileName);
-            String currFile = currCommitBlobs.get(fileName);
-            if (commonAncestorBlobs.containsKey(fileName)
-                    && targetCommitBlobs.containsKey(fileName)) {
-                String commonAncestorFile =
-                        commonAncestorBlobs.get(fileName);
-                if (!commonAncestorFile.equals(targetFile)
-                        && commonAncestorFile.equals(currFile)) {
-                    checkout(fileName, targetSha1);
-                    add(fileName);
-                } else if (!commonAncestorFile.equals(targetFile)
-                        || !commonAncestorFile.equals(currFile)
-                        || !targetFile.equals(currFile)) {
-                    writeConflict(currFile, fileName, targetFile);
-                    conflicted = true;
+        if (targetCommit.equals(commonAncestor)) {
+            report.accept(Repository.MergeResult.ANCESTOR);
+            return Repository.MergeResult.ANCESTOR;
+        } else if (lastCommit.equals(commonAncestor)) {
+            checkoutBranch(branch);
+            report.accept(Repository.MergeResult.FAST_FORWARD);
+            return Repository.MergeResult.FAST_FORWARD;
+        }
+        TreeMap<String, String[]> ours = new TreeMap<>();
+        TreeMap<String, String[]> theirs = new TreeMap<>();
+        String base = commonAncestor.getTree();
+        Tree.diff(treeStore, base, lastCommit.getTree(), ours);
+        Tree.diff(treeStore, base, targetCommit.getTree(), theirs);
+        List<String> deleted = new ArrayList<>();
+        TreeMap<String, String> written = new TreeMap<>();
+        TreeMap<String, String[]> conflicts = new TreeMap<>();
+        for (Map.Entry<String, String[]> change : theirs.entrySet()) {
+            String fileName = change.getKey();
+            String targetFile = change.getValue()[1];
+            String[] ourChange = ours.get(fileName);
+            if (ourChange == null) {
+                if (targetFile == null) {
+                    deleted.add(fileName);
+                    currStage.getRemoveFiles().add(fileName);
+                } else {
+                    written.put(fileName, targetFile);
+                    currStage.getAddedFiles().put(fileName, targetFile);
                 }
+            } else if (!Objects.equals(ourChange[1], targetFile)) {
+                conflicts.put(fileName, new String[] {
+                    change.getValue()[0], ourChange[1], targetFile});
             }
-            if (!targetCommitBlobs.containsKey(fileName)
-                    && commonAncestorBlobs.containsKey(fileName)
-                    && !commonAncestorBlobs.get(fileName)
-                .equals(currCommitBlobs.get(fileName))) {
-                writeAnotherConflict(currFile, fileName);
+        }
+        updateFiles(deleted, written);
+        boolean conflicted = false;
+        for (Map.Entry<String, String[]> conflict : conflicts.entrySet()) {
+            String[] blobs = conflict.getValue();
+            if (writeConflict(blobs[0], blobs[1], conflict.getKey(),
+                    blobs[2])) {
                 conflicted = true;
+            } else {
+                currStage.getAddedFiles().put(conflict.getKey(),
+                        blobStore.ingest(work.file(conflict.getKey())));
             }
         }
-        for (String fileName : targetCommitBlobs.keySet()) {
-            if (!commonAncestorBlobs.containsKey(fileName)) {
-                checkout(fileName, targetSha1);
-                add(fileName);
+        Repository.MergeResult result = conflicted
+                ? Repository.MergeResult.CONFLICTED
+                : Repository.MergeResult.MERGED;
+        report.accept(result);
+        head = currSha1;
+        branchName = currBranchName;
+        commitStage("Merged " + branch + " into "
+                + currBranchName + ".", true, targetSha1);
+        return result;
+    }
+
+    /**
+     * Write the three-way merge of a file changed on both sides to the
+     * working directory, streaming it to the file.  Lines are merged
+     * as bytes, read and written as ISO-8859-1, so that files in any
+     * encoding come out intact.  Binary files are not merged by line:
+     * both versions are written whole between conflict markers.
+     *
+     * @param baseFile blob in the common ancestor, or null
+     * @param currFile our blob, or null
+     * @param fileName file name
+     * @param targetFile their blob, or null
+     * @return if there were conflicts
+     */
+    public boolean writeConflict(String baseFile, String currFile,
+                                        String fileName, String targetFile) {
+        byte[] base = blobContents(baseFile);
+        byte[] ours = blobContents(currFile);
+        byte[] theirs = blobContents(targetFile);
+        Path path = work.create(fileName).toPath();
+        try {
+            if (UnifiedDiff.isBinary(base) || UnifiedDiff.isBinary(ours)
+                    || UnifiedDiff.isBinary(theirs)) {
+                try (OutputStream out = new BufferedOutputStream(
+                        Files.newOutputStream(path))) {
+                    out.write(ThreeWayMerge.OURS.getBytes(
+                            StandardCharsets.UTF_8));
+                    out.write(ours == null ? new byte[0] : ours);
+                    out.write(ThreeWayMerge.SEPARATOR.getBytes(
+                            StandardCharsets.UTF_8));
+                    out.write(theirs == null ? new byte[0] : theirs);
+                    out.write(ThreeWayMerge.THEIRS.getBytes(
+                            StandardCharsets.UTF_8));
+                }
+                return true;
+            }
+            try (Writer out = Files.newBufferedWriter(path,
+                    StandardCharsets.ISO_8859_1)) {
+                return ThreeWayMerge.merge(UnifiedDiff.lines(base),
+                        UnifiedDiff.lines(ours), UnifiedDiff.lines(theirs),
+                        out);
             }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        check(commonAncestorBlobs, currCommitBlobs, targetCommitBlobs);
-        finish(conflicted, branch, currBranchName, targetSha1);
-
     }
-    public static void check(TreeMap<String, String> commonAncestorBlobs,
-                                   TreeMap<String, String> currCommitBlobs,
-                                   TreeMap<String, String> targetCommitBlobs) {
-        for (String fileName : commonAncestorBlobs.keySet()) {
-            if (currCommitBlobs.containsKey(fileName)) {
-                if (commonAncestorBlobs.get(fileName)
-                        .equals(currCommitBlobs.get(fileName))
-                        && !targetCommitBlobs
-                        .containsKey(fileName)) {
-                    rm(fileName);
-                }
+
+    /**
+     * Find the best common ancestor of two commits, preferring the
+     * most recent when there are several.
+     *
+     * @param currentSha1 current commit
+     * @param targetSha1 target commit
+     * @return common ancestor
+     */
+    public Commit commonAncestor(String currentSha1, String targetSha1) {
+        CommitGraph graph = graph();
+        int[] bases = MergeBase.find(graph, graph.position(currentSha1),
+                graph.position(targetSha1));
+        if (bases.length == 0) {
+            return null;
+        }
+        int best = bases[0];
+        for (int base : bases) {
+            if (graph.time(base) > graph.time(best)) {
+                best = base;
             }
         }
+        return getCommit(graph.id(best));
     }
 
-    public static void branchCheck(Commit targetCommit,
-                                   Commit commonAncestor, String branch) {
-        if (targetCommit.equals(commonAncestor)) {
-            System.out.print("Given branch"
-                + " is an ancestor of the current branch.");
-            System.exit(0);
-        } else if (lastCommit.equals(commonAncestor)) {
-            checkoutBranch(branch);
-            System.out.println("Current branch fast-forwarded");
-            System.exit(0);
+    public void checkErrors(String branch, String currBranchName) {
+        if (!currStage.getAddedFiles().isEmpty()
+                || !currStage.getRemoveFiles().isEmpty()) {
+            throw new GitletException.Conflict(
+                    "You have uncommitted changes.");
+        }
+        if (readRef(branch) == null) {
+            throw new GitletException.NotFound(
+                    "A branch with that name does not exist");
+        }
+        if (currBranchName.equals(branch)) {
+            throw new GitletException.Invalid(
+                    "Cannot merge a branch with itself.");
         }
     }
 
-    public static void finish(boolean conflicted, String branch,
-                              String currBranchName, String targetSha1) {
-        if (conflicted) {
-            System.out.println("Encountered a merge conflict.");
+    public void checkAnotherError(Commit targetCommit) {
+        if (hasUntracked(lastCommit, targetCommit)) {
+            throw new GitletException.Conflict("There is an untracked file"
+                    + " in the way; delete it, or add and commit it first");
         }
-        commit("Merged " + branch + " into "
-                + currBranchName + ".", true, targetSha1);
     }
 
-    public static void writeAnotherConflict(String currFile,
-                                            String fileName) {
-        File conflictedFile = new File(CWD, fileName);
-        byte[] newContents = concatenate
-                ("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8),
-                Utils.readContents(new File(BLOBS, currFile)));
-        newContents = concatenate
-                (newContents, "=======\n".getBytes(StandardCharsets.UTF_8));
-        newContents = concatenate
-                (newContents, ">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
-        Utils.writeContents(conflictedFile, newContents);
-
-    }
-
-    public static void writeConflict(String currFile,
-                                     String fileName, String targetFile) {
-        File conflictFile = new File(CWD, fileName);
-        byte[] newContents = concatenate
-                ("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8),
-                Utils.readContents(new File(BLOBS, currFile)));
-        newContents = concatenate
-                (newContents, "=======\n".getBytes(StandardCharsets.UTF_8));
-        newContents = concatenate
-                (newContents, Utils.readContents(
-                    new File(BLOBS, targetFile)));
-        newContents = concatenate
-                (newContents, ">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
-        Utils.writeContents(conflictFile, newContents);
-    }
-
-    public static byte[] concatenate(byte[] front, byte[] rest) {
-        byte[] newArray = new byte[front.length + rest.length];
-        System.arraycopy(front, 0, newArray, 0, front.length);
-        System.arraycopy(rest, 0, newArray, front.length, rest.length);
-        return newArray;
-    }
-
-    public static Commit commonAncestor(String currentSha1, String targetSha1) {
-        Commit currCommit = getCommit(currentSha1);
-        Commit targetCommit = Utils.readObject
-                (new File(COMMITS, targetSha1), Commit.class);
-        ArrayList<String> commitPath = new ArrayList<>();
-        while (currCommit != null) {
-            commitPath.add(currCommit.getSha1());
-            if (currCommit.getParent() == null) {
-                break;
+    /**
+     * Prints the differences between two snapshots in unified format, in
+     * path order: with no operand, between the head commit and the
+     * working directory; with one, between that commit and the working
+     * directory; with two, between the two commits.  Working files not
+     * tracked by the commit are ignored.  Files whose blob ids match are
+     * skipped without being read, and the others are diffed in parallel.
+     *
+     * @param args "diff" and up to two commit ids
+     */
+    public void diff(String... args) {
+        if (args.length > 3) {
+            throw new GitletException.Invalid("Incorrect operands.");
+        }
+        String from = args.length > 1 ? resolveCommit(args[1]) : readHead();
+        String to = args.length > 2 ? resolveCommit(args[2]) : null;
+        Commit before = getCommit(from);
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        if (to != null) {
+            Tree.diff(treeStore, before.getTree(), getCommit(to).getTree(),
+                    changes);
+        } else {
+            for (Map.Entry<String, String> file
+                    : before.getBlobs().entrySet()) {
+                String working = workingBlob(file.getKey());
+                if (!file.getValue().equals(working)) {
+                    changes.put(file.getKey(),
+                            new String[] {file.getValue(), working});
+                }
             }
-            currCommit = Utils.readObject
-                    (new File(COMMITS, currCommit.getParent()),
-                            Commit.class);
-        }
-        while (targetCommit != null) {
-            if (commitPath.contains(targetCommit.getSha1())) {
-                return Utils.readObject
-                        (new File(COMMITS, targetCommit.getSha1()),
-                                Commit.class);
+            saveStatCache();
+        }
+        List<ForkJoinTask<byte[]>> sections = new ArrayList<>();
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String path = change.getKey();
+            String[] blobs = change.getValue();
+            sections.add(ForkJoinPool.commonPool().submit(() ->
+                    UnifiedDiff.format(path, blobContents(blobs[0]),
+                            to != null ? blobContents(blobs[1])
+                            : blobs[1] == null ? null
+                            : Utils.readContents(work.file(path)))));
+        }
+        BufferedOutputStream out = new BufferedOutputStream(System.out,
+                1 << 16);
+        try {
+            for (ForkJoinTask<byte[]> section : sections) {
+                out.write(section.join());
             }
-            targetCommit = Utils.readObject(
-                    new File(COMMITS, targetCommit.getParent()),
-                    Commit.class);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        return null;
     }
 
-    public static void checkErrors(String branch, String currBranchName) {
-        if (!currStage.getAddedFiles().isEmpty()
-                || !currStage.getRemoveFiles().isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+    /**
+     * Get the contents of a blob.
+     *
+     * @param blob blob id, or null
+     * @return contents, or null if BLOB is null
+     */
+    private byte[] blobContents(String blob) {
+        return blob == null ? null : blobStore.read(blob);
+    }
+
+    /**
+     * Rolls the loose blobs into a packfile, storing successive versions
+     * of each file as deltas against each other, and packs the
+     * branches.
+     */
+    public void repack() {
+        LinkedHashMap<String, LinkedHashSet<String>> histories =
+                new LinkedHashMap<>();
+        for (String path : getStage().getAddedFiles().keySet()) {
+            histories.computeIfAbsent(path, k -> new LinkedHashSet<>())
+                    .add(getStage().getAddedFiles().get(path));
         }
-        File targetBranch = new File(BRANCHFOLDER, branch);
-        if (!targetBranch.exists()) {
-            System.out.println("A branch with that name does not exist");
-            System.exit(0);
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        HashSet<String> visited = new HashSet<>();
+        HashSet<String> trees = new HashSet<>();
+        for (String branch : refNames()) {
+            queue.add(readRef(branch));
         }
-        if (currBranchName.equals(branch)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+        while (!queue.isEmpty()) {
+            String sha1 = queue.poll();
+            if (sha1 == null || !visited.add(sha1)) {
+                continue;
+            }
+            Commit commit = getCommit(sha1);
+            Tree.walk(treeStore, commit.getTree(), trees, (path, blob) ->
+                    histories.computeIfAbsent(path,
+                            k -> new LinkedHashSet<>()).add(blob));
+            if (commit.getParent() != null) {
+                queue.add(commit.getParent());
+            }
+            if (commit.getParent2() != null) {
+                queue.add(commit.getParent2());
+            }
         }
+        List<List<String>> versions = new ArrayList<>();
+        for (LinkedHashSet<String> ids : histories.values()) {
+            versions.add(new ArrayList<>(ids));
+        }
+        blobStore.repack(versions);
+        packRefs();
     }
 
-    public static void checkAnotherError(Commit targetCommit) {
-        List<String> fileList = Utils.plainFilenamesIn(CWD);
-        if (fileList != null) {
-            for (String file : fileList) {
-                if (!lastCommit.getBlobs().containsKey(file)
-                        && targetCommit.getBlobs().containsKey(file)) {
-                    System.out.println("There is an untracked file in the way;"
-                            + " delete it, or add and commit it first");
-                    System.exit(0);
-                }
+    /**
+     * Brings the .gitlet directory of an older repository up to the
+     * current layout: moves loose objects into their shards, re-encodes
+     * Java-serialized commits and staging area in the binary format,
+     * gives commits that list their blobs a tree, and rebuilds the
+     * commit graph and the commit id and message indices.  The
+     * branches are packed, which also moves those of a repository that
+     * still keeps one file per branch.
+     */
+    public void migrate() {
+        currentBranch();
+        packRefs();
+        commitStore.shard();
+        blobStore.shard();
+        commitGraph.rebuild(commitStore);
+        rehashCommits();
+        saveStage(getStage());
+        commitGraph.rebuild(commitStore);
+        commitIndex.rebuild(commitStore.ids());
+        legacyMessages.delete();
+        messagesFile.delete();
+        getMessageIndex();
+    }
+
+    /**
+     * Re-encode every commit without a tree, and every commit with a
+     * re-encoded ancestor, under its new id, and move the branches and
+     * head to the new ids.  Relies on the commit graph listing parents
+     * before children.
+     */
+    private void rehashCommits() {
+        HashMap<String, String> newIds = new HashMap<>();
+        for (int k = 0; k < commitGraph.size(); k += 1) {
+            String oldId = commitGraph.id(k);
+            byte[] data = commitStore.read(oldId);
+            Commit commit = Commit.decode(oldId, data, treeStore);
+            if (commit.hasTree()
+                    && !newIds.containsKey(commit.getParent())
+                    && !newIds.containsKey(commit.getParent2())) {
+                continue;
             }
+            Commit rehashed = commit.rehash(newIds, treeStore);
+            commitStore.write(rehashed.getSha1(), rehashed.encode());
+            commitStore.file(oldId).delete();
+            newIds.put(oldId, rehashed.getSha1());
         }
-    }
-    public static void diff(String... args) {
-        head = Utils.readContentsAsString(HEAD);
-        lastCommit = getCommit(head);
-        if (args.length == 1
-                && lastCommit.getMessage().equals("Change f and h.")) {
-            System.exit(0);
-        } else if (args.length == 1) {
-            Commit.print1();
-        } else if (args.length == 2) {
-            Commit.print2();
-        } else if (args.length == 3) {
-            Commit.print3();
+        if (newIds.isEmpty()) {
+            return;
+        }
+        for (String name : refNames()) {
+            String sha1 = readRef(name);
+            writeRef(name, newIds.getOrDefault(sha1, sha1));
         }
     }
 }
@@ -0,0 +1,240 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** A long-running gitlet process serving the commands of one repository
+ *  over a Unix domain socket, so that they need not load and warm up
+ *  gitlet's code nor read the repository's state again.
+ *
+ *  The only client is "java gitlet.Main" itself, which forwards its
+ *  command before touching the repository, so each command still pays
+ *  for starting a JVM; the daemon saves only what comes after.  Scripts
+ *  of many commands save the starts too by running them through
+ *  "gitlet batch".
+ *
+ *  A client sends the number of arguments of a command and then each
+ *  argument in modified UTF-8.  The daemon runs the command as Main
+ *  would and sends back frames, each a kind byte and an int: OUT and ERR
+ *  frames carry that many bytes of standard output or error, and the
+ *  final EXIT frame carries the exit code.  Commands are run one at a
+ *  time.  The command "daemon stop" makes the daemon exit.  A client
+ *  runs a command itself only if it cannot connect: once connected, it
+ *  may have sent the command, so a broken connection is reported as a
+ *  failure rather than running the command a second time.
+ *
+ *  While the daemon runs, commands should go through it: it trusts its
+ *  cached state files while their size and modification time are
+ *  unchanged.
+ *  @author Hanqi Xiong
+ */
+class Daemon {
+
+    /** Name of the socket in the .gitlet directory. */
+    private static final String SOCKET = "daemon.sock";
+
+    /** Frame kind of the exit code. */
+    private static final int EXIT = 0;
+
+    /** Frame kind of standard output. */
+    private static final int OUT = 1;
+
+    /** Frame kind of standard error. */
+    private static final int ERR = 2;
+
+    /** Size of the buffers of output frames. */
+    private static final int BUFFER = 1 << 13;
+
+    /** Return the socket of the repository whose working directory is
+     *  ROOT.  The path is relative to the current directory when that is
+     *  shorter, since socket paths are limited to about a hundred
+     *  bytes. */
+    static Path socket(File root) {
+        Path socket = new File(new File(root, WorkingTree.REPOSITORY),
+                               SOCKET).toPath().toAbsolutePath();
+        Path relative = Path.of("").toAbsolutePath().relativize(socket);
+        return relative.toString().length() < socket.toString().length()
+            ? relative : socket;
+    }
+
+    /** Run the command ARGS through the daemon of the repository whose
+     *  working directory is ROOT, copying its output to ours.  Return
+     *  its exit code, or null if no daemon is running. */
+    static Integer forward(File root, String... args) {
+        return forward(root, System.out, System.err, args);
+    }
+
+    /** Run the command ARGS through the daemon of the repository whose
+     *  working directory is ROOT, copying its standard output and error
+     *  to STDOUT and STDERR.  Return its exit code, or null if no daemon
+     *  is running.  If the connection breaks once made, report it on
+     *  STDERR and return 1. */
+    static Integer forward(File root, OutputStream stdout,
+                           OutputStream stderr, String... args) {
+        Path socket = socket(root);
+        if (!Files.exists(socket)) {
+            return null;
+        }
+        SocketChannel ch;
+        try {
+            ch = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException excp) {
+            return null;
+        }
+        try (ch) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(ch)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in =
+                new DataInputStream(Channels.newInputStream(ch));
+            while (true) {
+                int kind = in.readUnsignedByte();
+                int n = in.readInt();
+                if (kind == EXIT) {
+                    stdout.flush();
+                    return n;
+                }
+                byte[] data = new byte[n];
+                in.readFully(data);
+                (kind == ERR ? stderr : stdout).write(data);
+            }
+        } catch (IOException excp) {
+            new PrintStream(stderr, true, StandardCharsets.UTF_8)
+                .println("gitlet: lost the connection to the daemon.");
+            return 1;
+        }
+    }
+
+    /** Serve REPO until stopped.  Prints a message and returns if a
+     *  daemon is already running. */
+    static void serve(CommitTree repo) throws IOException {
+        if (forward(repo.root(), "daemon", "ping") != null) {
+            System.out.println("A daemon is already running.");
+            return;
+        }
+        Path socket = socket(repo.root());
+        Files.deleteIfExists(socket);
+        PrintStream stdout = System.out, stderr = System.err;
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            boolean running = true;
+            while (running) {
+                try (SocketChannel ch = server.accept()) {
+                    running = handle(repo, ch);
+                } catch (IOException excp) {
+                    stderr.println("gitlet daemon: " + excp.getMessage());
+                } finally {
+                    System.setOut(stdout);
+                    System.setErr(stderr);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /** Run the command sent on CH on REPO, sending back its output and
+     *  exit code.  Return false iff the daemon should stop. */
+    private static boolean handle(CommitTree repo, SocketChannel ch)
+        throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(ch));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(ch)));
+        boolean keepRunning = true;
+        int code = 0;
+        if (args.length == 2 && args[0].equals("daemon")) {
+            keepRunning = !args[1].equals("stop");
+        } else {
+            PrintStream cmdOut = new PrintStream(new Frames(out, OUT), false,
+                                                 StandardCharsets.UTF_8);
+            PrintStream cmdErr = new PrintStream(new Frames(out, ERR), false,
+                                                 StandardCharsets.UTF_8);
+            System.setOut(cmdOut);
+            System.setErr(cmdErr);
+            code = Main.run(repo, args);
+            cmdOut.flush();
+            cmdErr.flush();
+        }
+        out.writeByte(EXIT);
+        out.writeInt(code);
+        out.flush();
+        return keepRunning;
+    }
+
+    /** A stream sending what is written to it as frames of one kind. */
+    private static class Frames extends OutputStream {
+        /** The connection. */
+        private final DataOutputStream out;
+
+        /** The frame kind. */
+        private final int kind;
+
+        /** Bytes not yet sent. */
+        private final byte[] buffer = new byte[BUFFER];
+
+        /** Number of bytes in buffer. */
+        private int count;
+
+        /** Frames of kind KIND on OUT. */
+        Frames(DataOutputStream out, int kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flush();
+            }
+            buffer[count] = (byte) b;
+            count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flush();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                out.writeByte(kind);
+                out.writeInt(count);
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+
+/** Binary deltas between two versions of a blob.  A delta is the length
+ *  of the result followed by a sequence of instructions, each either a
+ *  COPY of a range of the base or an INSERT of literal bytes.
+ *  @author Hanqi Xiong
+ */
+class Delta {
+
+    /** Instruction tag copying a range of the base. */
+    private static final int COPY = 1;
+
+    /** Instruction tag inserting literal bytes. */
+    private static final int INSERT = 2;
+
+    /** Size of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+
+    /** Largest literal run held by a single INSERT. */
+    private static final int MAX_INSERT = 1 << 16;
+
+    /** Return a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(target.length);
+            int literal = 0;
+            int i = 0;
+            while (i + BLOCK <= target.length) {
+                Integer start = blocks.get(hash(target, i));
+                int len = start == null ? 0 : match(base, start, target, i);
+                if (len < BLOCK) {
+                    i += 1;
+                    if (i - literal == MAX_INSERT) {
+                        insert(out, target, literal, i);
+                        literal = i;
+                    }
+                    continue;
+                }
+                int back = 0;
+                while (start - back > 0 && i - back > literal
+                       && base[start - back - 1] == target[i - back - 1]) {
+                    back += 1;
+                }
+                insert(out, target, literal, i - back);
+                out.writeByte(COPY);
+                out.writeInt(start - back);
+                out.writeInt(len + back);
+                i += len;
+                literal = i;
+            }
+            insert(out, target, literal, target.length);
+            out.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        try {
+            DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(delta));
+            byte[] result = new byte[in.readInt()];
+            int pos = 0;
+            while (pos < result.length) {
+                int op = in.readByte();
+                if (op == COPY) {
+                    int start = in.readInt();
+                    int len = in.readInt();
+                    System.arraycopy(base, start, result, pos, len);
+                    pos += len;
+                } else if (op == INSERT) {
+                    int len = in.readInt();
+                    in.readFully(result, pos, len);
+                    pos += len;
+                } else {
+                    throw new IllegalArgumentException("corrupt delta");
+                }
+            }
+            return result;
+        } catch (IOException | IndexOutOfBoundsException excp) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+    }
+
+    /** Write an INSERT of TARGET[FROM .. TO-1] to OUT, if nonempty. */
+    private static void insert(DataOutputStream out, byte[] target,
+                               int from, int to) throws IOException {
+        if (from < to) {
+            out.writeByte(INSERT);
+            out.writeInt(to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Return the length of the common run of BASE starting at B and
+     *  TARGET starting at T. */
+    private static int match(byte[] base, int b, byte[] target, int t) {
+        int len = 0;
+        while (b + len < base.length && t + len < target.length
+               && base[b + len] == target[t + len]) {
+            len += 1;
+        }
+        return len;
+    }
+
+    /** Return a hash of the BLOCK bytes of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+}
@@ -2,23 +2,28 @@ package gitlet;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 
 import java.io.IOException;
 import java.nio.file.InvalidPathException;
 
-import static java.lang.Math.max;
-
 /** A comparison of two sequences of strings.  After executing setSequences to
  *  initialize the data, methods allow computing longest common sequences
  *  and differences in the form of edits needed to convert one sequence to the
  *  next.
+ *
+ *  Common subsequences are found with Myers' O(ND) algorithm, in its
+ *  linear-space form that recursively splits the sequences at the middle
+ *  snake of an optimal edit path, after trimming their common prefix and
+ *  suffix.  Lines are first interned to ints, so that the inner loops
+ *  compare primitives.  Time is O((N + M) D) and space O(N + M), for
+ *  sequences of lengths N and M that differ by D lines.
  *  @author P. N. Hilfinger */
 public class Diff {
 
@@ -27,8 +32,8 @@ public class Diff {
     public void setSequences(Collection<String> seq1, Collection<String> seq2) {
         _lines1 = new ArrayList<>(seq1);
         _lines2 = new ArrayList<>(seq2);
-        _lls = null;
-        _todo = null;
+        _ids1 = _ids2 = null;
+        _common = null;
     }
 
     /** Set the sequences currently being compared to the contents
@@ -48,8 +53,8 @@ public class Diff {
                  excp) {
             _lines2 = Collections.emptyList();
         }
-        _lls = null;
-        _todo = null;
+        _ids1 = _ids2 = null;
+        _common = null;
     }
 
     /** Return the first of the current sequences. */
@@ -76,88 +81,28 @@ public class Diff {
      *  items, respectively, of the current data sequences. */
     public int lls(int k1, int k2) {
         checkData();
-        if (_lls == null) {
-            _lls = new int[_lines1.size() + 1][_lines2.size() + 1];
-            for (int[] row : _lls) {
-                Arrays.fill(row, -1);
-            }
-        }
         if (k1 == 0 || k2 == 0
             || k1 > _lines1.size() || k2 > _lines2.size()) {
             return 0;
-        } else if (_lls[k1][k2] == -1) {
-            initStack();
-            push(k1, k2, 0);
-            while (!empty()) {
-                pop();
-                if (_llsTop1 == 0 || _llsTop2 == 0) {
-                    _lls[_llsTop1][_llsTop2] = 0;
-                } else if (_lls[_llsTop1][_llsTop2] != -1) {
-                    continue;
-                } else {
-                    switch (_llsState) {
-                    case 0:
-                        if (_lines1.get(_llsTop1 - 1)
-                            .equals(_lines2.get(_llsTop2 - 1))) {
-                            push(_llsTop1, _llsTop2, 4);
-                            push(_llsTop1 - 1, _llsTop2 - 1, 0);
-                        } else {
-                            push(_llsTop1, _llsTop2, 1);
-                        }
-                        continue;
-                    case 1:
-                        push(_llsTop1, _llsTop2, 2);
-                        push(_llsTop1, _llsTop2 - 1, 0);
-                        continue;
-                    case 2:
-                        push(_llsTop1, _llsTop2, 3);
-                        push(_llsTop1 - 1, _llsTop2, 0);
-                        continue;
-                    case 3:
-                        _lls[_llsTop1][_llsTop2]
-                            = max(_lls[_llsTop1][_llsTop2 - 1],
-                                  _lls[_llsTop1 - 1][_llsTop2]);
-                        continue;
-                    case 4:
-                        _lls[_llsTop1][_llsTop2]
-                            = _lls[_llsTop1 - 1][_llsTop2 - 1] + 1;
-                        continue;
-                    default:
-                        assert false;
-                    }
-                }
-            }
         }
-        return _lls[k1][k2];
+        if (k1 == _lines1.size() && k2 == _lines2.size()) {
+            return lls();
+        }
+        return length(common(k1, k2));
     }
 
     /** Return the length of the longest common subsequence of the current
      *  data subsequences. */
     public int lls() {
         checkData();
-        return lls(_lines1.size(), _lines2.size());
+        return length(commonSubsequence());
     }
 
     /** Return true iff the sequences currently being compared have identical
      *  content. */
     public boolean sequencesEqual() {
         checkData();
-        if (_lines1.size() != _lines2.size()) {
-            return false;
-        }
-        return lls(_lines1.size(), _lines2.size()) == _lines1.size();
-    }
-
-    /** Return an array containing the int values of the items in LIST. */
-    private int[] toIntArr(Collection<Integer> list) {
-        int[] result = new int[list.size()];
-        int i;
-        i = 0;
-        for (int x : list) {
-            result[i] = x;
-            i += 1;
-        }
-        return result;
+        return _lines1.equals(_lines2);
     }
 
     /** Return largest common subsequence of the sequences being compared as
@@ -166,30 +111,11 @@ public class Diff {
      *  first file (0-based), si2 is the starting position in the second
      *  file, and Li is the length of the subsequence. */
     public int[] commonSubsequence() {
-        ArrayDeque<Integer> resultList = new ArrayDeque<>();
-
-        int k1, k2;
-        k1 = _lines1.size(); k2 = _lines2.size();
-        while (k1 > 0 && k2 > 0) {
-            int ls = lls(k1, k2);
-            if (lls(k1 - 1, k2) == ls) {
-                k1 -= 1;
-            } else if (lls(k1, k2 - 1) == ls) {
-                k2 -= 1;
-            } else {
-                int L;
-                L = 1;
-                while (k1 > L && k2 > L && lls(k1 - L - 1, k2 - L) != ls - L
-                       && lls(k1 - L, k2 - L  - 1) != ls - L) {
-                    L += 1;
-                }
-                resultList.offerFirst(L);
-                resultList.offerFirst(k2 - L);
-                resultList.offerFirst(k1 - L);
-                k1 -= L; k2 -= L;
-            }
+        checkData();
+        if (_common == null) {
+            _common = common(_lines1.size(), _lines2.size());
         }
-        return toIntArr(resultList);
+        return _common.clone();
     }
 
     /** Return the edit that converts the first of the sequences being compared
@@ -202,26 +128,20 @@ public class Diff {
      *  removal of lines or addition of lines. */
     public int[] diffs() {
         int[] common = commonSubsequence();
-        ArrayList<Integer> result = new ArrayList<>();
+        Runs result = new Runs();
         int e1, e2;
         e1 = e2 = 0;
         for (int k = 0; k < common.length; k += 3) {
             if (e1 != common[k] || e2 != common[k + 1]) {
-                result.add(e1);
-                result.add(common[k] - e1);
-                result.add(e2);
-                result.add(common[k + 1] - e2);
+                result.add(e1, common[k] - e1, e2, common[k + 1] - e2);
             }
             e1 = common[k] + common[k + 2];
             e2 = common[k + 1] + common[k + 2];
         }
         if (e1 < _lines1.size() || e2 < _lines2.size()) {
-            result.add(e1);
-            result.add(_lines1.size() - e1);
-            result.add(e2);
-            result.add(_lines2.size() - e2);
+            result.add(e1, _lines1.size() - e1, e2, _lines2.size() - e2);
         }
-        return toIntArr(result);
+        return result.toArray();
     }
 
     /** Raise an exception if there are no current data sequences for
@@ -232,45 +152,192 @@ public class Diff {
         }
     }
 
-    /** Initialize work stack for lls. */
-    private void initStack() {
-        _todo = new int[6 * (_lines1.size() +  _lines2.size() + 1)];
-        _todop = 0;
+    /** Return the sum of the lengths in COMMON, a common subsequence in
+     *  the form returned by commonSubsequence. */
+    private static int length(int[] common) {
+        int n;
+        n = 0;
+        for (int k = 2; k < common.length; k += 3) {
+            n += common[k];
+        }
+        return n;
     }
 
-    /** Push an item on the work stack for computing lls(I1, I2). STATE
-     *  indicates which inner recursive calls have happened so far for these
-     *  arguments. */
-    private void push(int i1, int i2, int state) {
-        _todo[_todop + 1] = i1;
-        _todo[_todop + 2] = i2;
-        _todo[_todop] = state;
-        _todop += 3;
+    /** Return a longest common subsequence of the first N1 and N2 items
+     *  of the current data sequences, as for commonSubsequence. */
+    private int[] common(int n1, int n2) {
+        intern();
+        int max = (n1 + n2 + 1) / 2;
+        _forward = new int[2 * max + 3];
+        _backward = new int[2 * max + 3];
+        _offset = max + 1;
+        Runs result = new Runs();
+        common(0, n1, 0, n2, result);
+        _forward = _backward = null;
+        return result.toArray();
     }
 
-    /** Pop an item from the work stack. */
-    private void pop() {
-        _todop -= 3;
-        _llsTop1 = _todo[_todop + 1]; _llsTop2 = _todo[_todop + 2];
-        _llsState = _todo[_todop];
+    /** Append to RESULT a longest common subsequence of the items
+     *  [LO1 .. HI1 - 1] of the first sequence and [LO2 .. HI2 - 1] of the
+     *  second. */
+    private void common(int lo1, int hi1, int lo2, int hi2, Runs result) {
+        int[] a = _ids1, b = _ids2;
+        int start1 = lo1, start2 = lo2;
+        while (lo1 < hi1 && lo2 < hi2 && a[lo1] == b[lo2]) {
+            lo1 += 1;
+            lo2 += 1;
+        }
+        result.match(start1, start2, lo1 - start1);
+        int suffix;
+        suffix = 0;
+        while (lo1 < hi1 - suffix && lo2 < hi2 - suffix
+               && a[hi1 - suffix - 1] == b[hi2 - suffix - 1]) {
+            suffix += 1;
+        }
+        hi1 -= suffix;
+        hi2 -= suffix;
+        if (lo1 < hi1 && lo2 < hi2) {
+            middleSnake(lo1, hi1, lo2, hi2);
+            int x0 = _snake1, y0 = _snake2, len = _snakeLength;
+            common(lo1, x0, lo2, y0, result);
+            result.match(x0, y0, len);
+            common(x0 + len, hi1, y0 + len, hi2, result);
+        }
+        result.match(hi1, hi2, suffix);
     }
 
-    /** Return true iff the work stack is empty. */
-    private boolean empty() {
-        return _todop <= 0;
+    /** Find the middle snake of an optimal edit path from the items
+     *  [LO1 .. HI1 - 1] of the first sequence to [LO2 .. HI2 - 1] of the
+     *  second, which must be nonempty and differ in their first and last
+     *  items, and set _snake1, _snake2 and _snakeLength to its start and
+     *  length.  Both halves of the path around the snake are then shorter
+     *  than the whole. */
+    private void middleSnake(int lo1, int hi1, int lo2, int hi2) {
+        int[] a = _ids1, b = _ids2, vf = _forward, vb = _backward;
+        int off = _offset;
+        int n = hi1 - lo1, m = hi2 - lo2;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        vf[off + 1] = 0;
+        vb[off + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && vf[off + k - 1]
+                                    < vf[off + k + 1])
+                    ? vf[off + k + 1] : vf[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x, y0 = y;
+                while (x < n && y < m && a[lo1 + x] == b[lo2 + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vf[off + k] = x;
+                if (odd && Math.abs(delta - k) <= d - 1
+                    && x + vb[off + delta - k] >= n) {
+                    setSnake(lo1 + x0, lo2 + y0, x - x0);
+                    return;
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && vb[off + k - 1]
+                                    < vb[off + k + 1])
+                    ? vb[off + k + 1] : vb[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                while (x < n && y < m
+                       && a[hi1 - 1 - x] == b[hi2 - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vb[off + k] = x;
+                if (!odd && Math.abs(delta - k) <= d
+                    && x + vf[off + delta - k] >= n) {
+                    setSnake(hi1 - x, hi2 - y, x - x0);
+                    return;
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /** Record a snake of LEN matching items from S1 and S2. */
+    private void setSnake(int s1, int s2, int len) {
+        _snake1 = s1;
+        _snake2 = s2;
+        _snakeLength = len;
+    }
+
+    /** Give every distinct line of the current sequences an int id. */
+    private void intern() {
+        if (_ids1 != null) {
+            return;
+        }
+        HashMap<String, Integer> ids = new HashMap<>();
+        _ids1 = new int[_lines1.size()];
+        _ids2 = new int[_lines2.size()];
+        for (int i = 0; i < _ids1.length; i += 1) {
+            _ids1[i] = ids.computeIfAbsent(_lines1.get(i), s -> ids.size());
+        }
+        for (int i = 0; i < _ids2.length; i += 1) {
+            _ids2[i] = ids.computeIfAbsent(_lines2.get(i), s -> ids.size());
+        }
+    }
+
+    /** A growing array of ints. */
+    private static class Runs {
+        /** The values. */
+        private int[] _values = new int[12];
+        /** Number of values. */
+        private int _size;
+
+        /** Append VALS. */
+        void add(int... vals) {
+            if (_size + vals.length > _values.length) {
+                _values = Arrays.copyOf(_values,
+                                        2 * (_size + vals.length));
+            }
+            System.arraycopy(vals, 0, _values, _size, vals.length);
+            _size += vals.length;
+        }
+
+        /** Append the common run of LEN items from S1 and S2, joining it
+         *  to the previous run if that ends where it starts. */
+        void match(int s1, int s2, int len) {
+            if (len == 0) {
+                return;
+            }
+            if (_size > 0 && _values[_size - 3] + _values[_size - 1] == s1
+                && _values[_size - 2] + _values[_size - 1] == s2) {
+                _values[_size - 1] += len;
+            } else {
+                add(s1, s2, len);
+            }
+        }
+
+        /** Return the values. */
+        int[] toArray() {
+            return Arrays.copyOf(_values, _size);
+        }
     }
 
     /** The sequences being compared. */
     private List<String> _lines1, _lines2;
 
-    /** The memo table for longest common subsequence.  _lls[a][b] contains the
-     *  length of the longest common sequence of the prefixes of the current
-     *  data sequences of lengths a and b, or -1 if not calculated. */
-    private int[][] _lls;
+    /** The interned sequences, or null if not yet interned. */
+    private int[] _ids1, _ids2;
+
+    /** The longest common subsequence of the whole sequences, or null if
+     *  not yet computed. */
+    private int[] _common;
+
+    /** The furthest-reaching forward and backward paths of middleSnake,
+     *  by diagonal. */
+    private int[] _forward, _backward;
+
+    /** The index of diagonal 0 in _forward and _backward. */
+    private int _offset;
 
-    /** A stack structure used by lls. */
-    private int[] _todo;
-    /** Structure for the work queue used by lls. */
-    private int _todop, _llsState, _llsTop1, _llsTop2;
+    /** The middle snake found by middleSnake. */
+    private int _snake1, _snake2, _snakeLength;
 
 }
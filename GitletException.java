@@ -3,11 +3,15 @@
 package gitlet;
 
 /** General exception indicating a Gitlet error.  For fatal errors, the
- *  result of .getMessage() is the error message to be printed.
+ *  result of .getMessage() is the error message to be printed.  The
+ *  nested subclasses tell callers of Repository what kind of error it
+ *  was; their messages are those the command line prints.
  *  @author P. N. Hilfinger
  */
-class GitletException extends RuntimeException {
+public class GitletException extends RuntimeException {
 
+    /** Version of the serialized form. */
+    private static final long serialVersionUID = 1L;
 
     /** A GitletException with no message. */
     GitletException() {
@@ -19,4 +23,41 @@ class GitletException extends RuntimeException {
         super(msg);
     }
 
+    /** A branch, commit, file or repository that was named does not
+     *  exist. */
+    public static class NotFound extends GitletException {
+        /** Version of the serialized form. */
+        private static final long serialVersionUID = 1L;
+
+        /** A NotFound error with message MSG. */
+        NotFound(String msg) {
+            super(msg);
+        }
+    }
+
+    /** An operation that would clash with the state of the repository
+     *  or of the working directory, such as overwriting an untracked
+     *  file or creating a branch that exists. */
+    public static class Conflict extends GitletException {
+        /** Version of the serialized form. */
+        private static final long serialVersionUID = 1L;
+
+        /** A Conflict error with message MSG. */
+        Conflict(String msg) {
+            super(msg);
+        }
+    }
+
+    /** A request that is malformed or has nothing to do, such as a
+     *  commit with no message or no changes. */
+    public static class Invalid extends GitletException {
+        /** Version of the serialized form. */
+        private static final long serialVersionUID = 1L;
+
+        /** An Invalid error with message MSG. */
+        Invalid(String msg) {
+            super(msg);
+        }
+    }
+
 }
@@ -0,0 +1,58 @@
+package gitlet;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/** Support for global-log: formatting many commits in parallel while
+ *  keeping the output in a fixed order, and ordering all commits by
+ *  time.
+ *  @author Hanqi Xiong
+ */
+class GlobalLog {
+
+    /** Number of commits formatted together. */
+    static final int BATCH = 512;
+
+    /** Write FORMAT applied to each id delivered by IDS to OUT, in the
+     *  order delivered.  Ids are taken BATCH at a time and each batch is
+     *  formatted on the common fork-join pool, so only one batch of
+     *  commits is in memory at once. */
+    static void print(Iterator<String> ids, Function<String, String> format,
+                      PrintWriter out) {
+        List<String> batch = new ArrayList<>(BATCH);
+        while (ids.hasNext()) {
+            batch.add(ids.next());
+            if (batch.size() == BATCH || !ids.hasNext()) {
+                List<String> entries = batch.parallelStream().map(format)
+                    .collect(Collectors.toList());
+                for (String entry : entries) {
+                    out.print(entry);
+                }
+                batch.clear();
+            }
+        }
+        out.flush();
+    }
+
+    /** Return an iterator over the ids of all commits in GRAPH, newest
+     *  first, ties broken by graph position.  Only positions are sorted,
+     *  by the times the graph already holds; each id is looked up as the
+     *  iterator reaches it. */
+    static Iterator<String> byTime(CommitGraph graph) {
+        return IntStream.range(0, graph.size()).boxed()
+            .sorted((x, y) -> newer(graph, x, y))
+            .map(graph::id).iterator();
+    }
+
+    /** Compare positions X and Y of GRAPH so that later commits come
+     *  first, and then later positions. */
+    private static int newer(CommitGraph graph, int x, int y) {
+        int c = Long.compare(graph.time(y), graph.time(x));
+        return c != 0 ? c : Integer.compare(y, x);
+    }
+}
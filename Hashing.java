@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** SHA-1 hashing without per-call setup.  Each thread reuses one
+ *  digest and one read buffer, and ids are rendered in hexadecimal from
+ *  a table.  Files are hashed straight from their channel: small files
+ *  through the thread's buffer and files of at least MAP_THRESHOLD
+ *  bytes through memory-mapped windows of at most MAP_WINDOW bytes, so
+ *  no file is ever copied whole onto the heap.
+ *  @author Hanqi Xiong
+ */
+class Hashing {
+
+    /** Length of a raw SHA-1 id, in bytes. */
+    static final int RAW_LENGTH = 20;
+
+    /** Size from which files are hashed through mappings. */
+    static final long MAP_THRESHOLD = 1 << 20;
+
+    /** Largest part of a file mapped at once. */
+    static final long MAP_WINDOW = 1 << 28;
+
+    /** Size of the read buffers. */
+    private static final int BUFFER = 1 << 16;
+
+    /** Hexadecimal digits. */
+    private static final byte[] HEX =
+        "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /** The digest of each thread. */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+        ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+            }
+        });
+
+    /** The read buffer of each thread. */
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER));
+
+    /** Return this thread's digest, reset. */
+    static MessageDigest digest() {
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        return md;
+    }
+
+    /** Return the raw SHA-1 hash of the concatenation of VALS, which may
+     *  be any mixture of byte arrays and Strings. */
+    static byte[] raw(Object... vals) {
+        MessageDigest md = digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
+            }
+        }
+        return md.digest();
+    }
+
+    /** Return the SHA-1 id of the concatenation of VALS, as for raw. */
+    static String sha1(Object... vals) {
+        return hex(raw(vals));
+    }
+
+    /** Return the raw SHA-1 hash of the contents of FILE. */
+    static byte[] rawFile(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                 StandardOpenOption.READ)) {
+            MessageDigest md = digest();
+            update(md, ch);
+            return md.digest();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the SHA-1 id of the contents of FILE. */
+    static String file(File file) {
+        return hex(rawFile(file));
+    }
+
+    /** Add the remaining contents of CH to MD. */
+    static void update(MessageDigest md, FileChannel ch) throws IOException {
+        long size = ch.size();
+        if (size >= MAP_THRESHOLD) {
+            for (long pos = ch.position(); pos < size; pos += MAP_WINDOW) {
+                md.update(ch.map(FileChannel.MapMode.READ_ONLY, pos,
+                                 Math.min(MAP_WINDOW, size - pos)));
+            }
+            ch.position(size);
+            return;
+        }
+        ByteBuffer buffer = READ_BUFFER.get();
+        buffer.clear();
+        while (ch.read(buffer) >= 0) {
+            buffer.flip();
+            md.update(buffer);
+            buffer.clear();
+        }
+    }
+
+    /** Return RAW in hexadecimal. */
+    static String hex(byte[] raw) {
+        byte[] digits = new byte[2 * raw.length];
+        for (int i = 0; i < raw.length; i += 1) {
+            digits[2 * i] = HEX[(raw[i] >> 4) & 0xf];
+            digits[2 * i + 1] = HEX[raw[i] & 0xf];
+        }
+        return new String(digits, StandardCharsets.ISO_8859_1);
+    }
+
+    /** Return the raw form of the hexadecimal id ID. */
+    static byte[] unhex(String id) {
+        byte[] raw = new byte[id.length() / 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            raw[i] = (byte) (Character.digit(id.charAt(2 * i), 16) << 4
+                             | Character.digit(id.charAt(2 * i + 1), 16));
+        }
+        return raw;
+    }
+}
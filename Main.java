@@ -1,6 +1,13 @@
 package gitlet;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Hanqi Xiong
@@ -8,74 +15,187 @@ import java.io.IOException;
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> ....  The command is run by the repository's
+     *  daemon if one is running, and otherwise in this process; either
+     *  way this process is a JVM of its own, see Daemon.  The
+     *  command "batch [FILE]" runs the commands in FILE, or on the
+     *  standard input, in this process.  Commands act on the repository
+     *  in the current directory. */
     public static void main(String... args) throws IOException {
+        File root = new File(System.getProperty("user.dir"));
+        String command = args.length > 0 ? args[0] : "";
+        Integer code = null;
+        if (!command.equals("daemon") && !command.equals("batch")) {
+            code = Daemon.forward(root, args);
+        }
+        if (code == null) {
+            CommitTree repo = new CommitTree(root);
+            if (command.equals("daemon")) {
+                daemon(repo, args);
+                return;
+            }
+            code = command.equals("batch") ? batch(repo, args)
+                : run(repo, args);
+        }
+        if (code != 0) {
+            System.exit(code);
+        }
+    }
+
+    /** Start the daemon of REPO, or given ARGS "daemon stop", stop it. */
+    private static void daemon(CommitTree repo, String... args)
+        throws IOException {
+        if (args.length == 1) {
+            Daemon.serve(repo);
+        } else if (args.length == 2 && args[1].equals("stop")) {
+            if (Daemon.forward(repo.root(), args) == null) {
+                System.out.println("No daemon is running.");
+            }
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /** Run on REPO the script named by ARGS "batch [FILE]".  Return the
+     *  exit code. */
+    private static int batch(CommitTree repo, String... args)
+        throws IOException {
+        if (args.length > 2) {
+            System.out.println("Incorrect operands.");
+            return 0;
+        }
+        try (Reader in = args.length == 2
+                 ? new FileReader(args[1], StandardCharsets.UTF_8)
+                 : new InputStreamReader(System.in, StandardCharsets.UTF_8)) {
+            return Batch.run(repo, new BufferedReader(in));
+        }
+    }
+
+    /** Run the command ARGS on REPO in this process, printing the message
+     *  of any gitlet error.  Return the exit code: 0, or 1 after an
+     *  unexpected failure. */
+    static int run(CommitTree repo, String... args) {
+        repo.refresh();
+        try {
+            dispatch(repo, args);
+            return 0;
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            return 0;
+        } catch (IOException | RuntimeException excp) {
+            excp.printStackTrace();
+            return 1;
+        } finally {
+            System.out.flush();
+        }
+    }
+
+    /** Run the command ARGS on REPO. */
+    private static void dispatch(CommitTree repo, String... args)
+        throws IOException {
         if (args.length == 0) {
             System.out.println("Please enter a command");
-            System.exit(0);
+            return;
         }
         switch (args[0]) {
         case "init":
-            CommitTree.init();
+            repo.init();
             break;
         case "add":
-            CommitTree.add(args[1]);
+            repo.add(Arrays.copyOfRange(args, 1, args.length));
             break;
         case "commit":
-            CommitTree.commit(args[1], false, null);
+            repo.commit(args[1], false, null);
             break;
         case "rm":
-            CommitTree.rm(args[1]);
+            repo.rm(args[1]);
             break;
         case "log":
-            CommitTree.log();
+            repo.log();
             break;
         case "global-log":
-            CommitTree.globalLog();
+            repo.globalLog(args.length > 1 ? args[1] : null);
             break;
         case "find":
-            CommitTree.find(args[1]);
+            if (args.length == 3 && args[1].equals("-t")) {
+                repo.findSubstring(args[2]);
+            } else if (args.length == 3 && args[1].equals("-r")) {
+                repo.findRegex(args[2]);
+            } else {
+                repo.find(args[1]);
+            }
             break;
         case "status":
-            CommitTree.status();
+            repo.status();
             break;
         case "checkout":
-            checkoutHelper(args);
+            checkoutHelper(repo, args);
+            break;
         case "branch":
-            CommitTree.branch(args[1]);
+            repo.branch(args[1]);
             break;
         case "rm-branch":
-            CommitTree.rmBranch(args[1]);
+            repo.rmBranch(args[1]);
             break;
         case "reset":
-            CommitTree.reset(args[1]);
+            repo.reset(args[1]);
             break;
         case "merge":
-            CommitTree.merge(args[1]);
+            repo.merge(args[1], Main::printMerge);
+            break;
+        case "repack":
+            repo.repack();
+            break;
+        case "migrate":
+            repo.migrate();
+            break;
+        case "watch":
+            repo.watch();
+            break;
+        case "checkpoint":
+            repo.checkpoint();
             break;
         case "diff":
-            CommitTree.diff(args);
+            repo.diff(args);
             break;
         default:
             System.out.println("No command with that name exists");
         }
     }
 
-    public static void checkoutHelper(String... args) {
+    /** Run the command ARGS "checkout ..." on REPO. */
+    public static void checkoutHelper(CommitTree repo, String... args) {
         if (args.length - 1 == 1) {
-            CommitTree.checkoutBranch(args[1]);
-            System.exit(0);
+            if (repo.exists() && args[1].equals(repo.currentBranch())) {
+                System.out.println("No need to checkout the current branch");
+            }
+            repo.checkoutBranch(args[1]);
         } else if (args.length - 1 == 2) {
-            CommitTree.checkout(args[2]);
-            System.exit(0);
+            repo.checkout(args[2]);
         } else if (args.length - 1 == 3) {
             if (args[2].equals("--")) {
-                CommitTree.checkout(args[3], args[1]);
-                System.exit(0);
+                repo.checkout(args[3], args[1]);
             } else {
                 System.out.println("Incorrect operands.");
-                System.exit(0);
             }
         }
     }
+
+    /** Print how a merge went, as RESULT tells. */
+    private static void printMerge(Repository.MergeResult result) {
+        switch (result) {
+        case ANCESTOR:
+            System.out.println("Given branch"
+                               + " is an ancestor of the current branch.");
+            break;
+        case FAST_FORWARD:
+            System.out.println("Current branch fast-forwarded");
+            break;
+        case CONFLICTED:
+            System.out.println("Encountered a merge conflict.");
+            break;
+        default:
+            break;
+        }
+    }
 }
@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Computation of the best common ancestors of two commits.  Both commits
+ *  are painted onto their ancestors in a single walk that visits commits
+ *  in decreasing generation order, so that every commit is visited after
+ *  all its descendants among the commits reached.  A commit reached by
+ *  both paints is a common ancestor; its own ancestors are then marked
+ *  stale, and the walk stops once only stale commits remain to be
+ *  visited.  Each commit is visited at most once per paint, so the walk
+ *  is linear in the part of the history it covers.
+ *  @author Hanqi Xiong
+ */
+class MergeBase {
+
+    /** The view of a commit history needed by the walk.  Commits are
+     *  numbered 0 .. size() - 1. */
+    interface Graph {
+        /** Return the number of commits. */
+        int size();
+
+        /** Return the first parent of K, or CommitGraph.NONE. */
+        int parent(int k);
+
+        /** Return the second parent of K, or CommitGraph.NONE. */
+        int parent2(int k);
+
+        /** Return the generation number of K. */
+        int generation(int k);
+    }
+
+    /** Paint of the first commit's ancestors. */
+    private static final byte PARENT1 = 1;
+
+    /** Paint of the second commit's ancestors. */
+    private static final byte PARENT2 = 2;
+
+    /** Mark of commits below a common ancestor. */
+    private static final byte STALE = 4;
+
+    /** Mark of commits already reported. */
+    private static final byte RESULT = 8;
+
+    /** Mark of commits currently in the queue. */
+    private static final byte QUEUED = 16;
+
+    /** Return the best common ancestors of A and B in GRAPH: the common
+     *  ancestors that are not ancestors of another common ancestor.  They
+     *  are ordered by decreasing generation. */
+    static int[] find(Graph graph, int a, int b) {
+        if (a == b) {
+            return new int[] {a};
+        }
+        byte[] flags = new byte[graph.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int c = Integer.compare(graph.generation(y),
+                                    graph.generation(x));
+            return c != 0 ? c : Integer.compare(y, x);
+        });
+        flags[a] |= PARENT1 | QUEUED;
+        flags[b] |= PARENT2 | QUEUED;
+        queue.add(a);
+        queue.add(b);
+        int live = 2;
+        List<Integer> candidates = new ArrayList<>();
+        while (live > 0) {
+            int k = queue.poll();
+            flags[k] &= ~QUEUED;
+            int f = flags[k] & (PARENT1 | PARENT2 | STALE);
+            if ((f & STALE) == 0) {
+                live -= 1;
+            }
+            if ((f & (PARENT1 | PARENT2)) == (PARENT1 | PARENT2)
+                && (f & STALE) == 0) {
+                if ((flags[k] & RESULT) == 0) {
+                    flags[k] |= RESULT;
+                    candidates.add(k);
+                }
+                f |= STALE;
+            }
+            for (int p : new int[] {graph.parent(k), graph.parent2(k)}) {
+                if (p == CommitGraph.NONE || (flags[p] & f) == f) {
+                    continue;
+                }
+                boolean queued = (flags[p] & QUEUED) != 0;
+                boolean wasLive = (flags[p] & STALE) == 0;
+                flags[p] |= f;
+                boolean isLive = (flags[p] & STALE) == 0;
+                if (!queued) {
+                    flags[p] |= QUEUED;
+                    queue.add(p);
+                    if (isLive) {
+                        live += 1;
+                    }
+                } else if (wasLive && !isLive) {
+                    live -= 1;
+                }
+            }
+        }
+        return removeRedundant(graph, candidates);
+    }
+
+    /** Return CANDIDATES without those that are ancestors of another
+     *  candidate in GRAPH, ordered by decreasing generation. */
+    private static int[] removeRedundant(Graph graph,
+                                         List<Integer> candidates) {
+        candidates.sort((x, y) -> {
+            int c = Integer.compare(graph.generation(y),
+                                    graph.generation(x));
+            return c != 0 ? c : Integer.compare(y, x);
+        });
+        List<Integer> result = new ArrayList<>();
+        for (int c : candidates) {
+            boolean redundant = false;
+            for (int r : result) {
+                if (reaches(graph, r, c)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                result.add(c);
+            }
+        }
+        int[] bases = new int[result.size()];
+        for (int i = 0; i < bases.length; i += 1) {
+            bases[i] = result.get(i);
+        }
+        return bases;
+    }
+
+    /** Return true iff TO is an ancestor of FROM in GRAPH.  The search
+     *  does not descend below the generation of TO. */
+    static boolean reaches(Graph graph, int from, int to) {
+        int floor = graph.generation(to);
+        HashSet<Integer> seen = new HashSet<>();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(from);
+        seen.add(from);
+        while (!stack.isEmpty()) {
+            int k = stack.pop();
+            if (k == to) {
+                return true;
+            }
+            for (int p : new int[] {graph.parent(k), graph.parent2(k)}) {
+                if (p != CommitGraph.NONE && graph.generation(p) >= floor
+                    && seen.add(p)) {
+                    stack.push(p);
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,339 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/** An index of commit messages.  It maps each distinct message to the ids
+ *  of the commits that carry it, and each lower-cased word of a message
+ *  to the messages containing it, so that find can select commits without
+ *  reading them.
+ *
+ *  The index is kept in a log file: a header (magic number, version)
+ *  followed by one record per commit, its raw id and its message as a
+ *  length-prefixed UTF-8 string.  A commit appends its record without
+ *  reading the log, and an index in memory reads only the records
+ *  appended since it last looked.  The log is only written whole when
+ *  it is rebuilt from the commits.
+ *  @author Hanqi Xiong
+ */
+public class MessageIndex {
+
+    /** Magic number opening the log. */
+    private static final int MAGIC = 0x474d5347;
+
+    /** Current format version. */
+    private static final int VERSION = 1;
+
+    /** Length of the header. */
+    private static final int HEADER = 8;
+
+    /** The commits of each message. */
+    private final HashMap<String, TreeSet<String>> exact = new HashMap<>();
+
+    /** The messages containing each word. */
+    private final HashMap<String, HashSet<String>> words = new HashMap<>();
+
+    /** Number of commits indexed. */
+    private int size;
+
+    /** The log, or null for an index kept only in memory. */
+    private final File log;
+
+    /** Length of the log read so far. */
+    private long read;
+
+    /** Identity of the log when last read, or null. */
+    private Object readKey;
+
+    /** An empty index kept only in memory. */
+    public MessageIndex() {
+        this(null);
+    }
+
+    /** An index of the commits recorded in the log LOG, read by update.
+     * @param log log file
+     * */
+    MessageIndex(File log) {
+        this.log = log;
+    }
+
+    /** Append the record of commit SHA1 with message MESSAGE to the log
+     *  LOG, starting the log if there is none.  Indexes reading LOG see
+     *  the commit at their next update.
+     * @param log log file
+     * @param sha1 commit id
+     * @param message commit message
+     * */
+    static void append(File log, String sha1, String message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (!log.isFile() || log.length() == 0) {
+                writeHeader(out);
+            }
+            writeRecord(out, sha1, message);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (OutputStream out = Files.newOutputStream(log.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(bytes.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Read the records appended to the log since the last update, or
+     *  all of them if the log was replaced.  A record cut short at the
+     *  end of the log is left for a later update. */
+    void update() {
+        if (!log.isFile()) {
+            clear();
+            return;
+        }
+        try {
+            BasicFileAttributes attrs =
+                Files.readAttributes(log.toPath(),
+                                     BasicFileAttributes.class);
+            if (!Objects.equals(attrs.fileKey(), readKey)
+                || attrs.size() < read) {
+                clear();
+                readKey = attrs.fileKey();
+            }
+            if (attrs.size() == read) {
+                return;
+            }
+            try (InputStream in = Files.newInputStream(log.toPath())) {
+                in.skipNBytes(read);
+                readRecords(new DataInputStream(
+                    new BufferedInputStream(in)), attrs.size());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return true iff every record of the log has been read.
+     * @return if current
+     * */
+    boolean isCurrent() {
+        if (!log.isFile()) {
+            return size == 0;
+        }
+        try {
+            BasicFileAttributes attrs =
+                Files.readAttributes(log.toPath(),
+                                     BasicFileAttributes.class);
+            return Objects.equals(attrs.fileKey(), readKey)
+                && attrs.size() == read;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Replace the log by one recording exactly the commits of this
+     *  index, written aside and renamed over the old one. */
+    void write() {
+        File tmp = new File(log.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(
+                     tmp.toPath())))) {
+            writeHeader(out);
+            for (Map.Entry<String, TreeSet<String>> entry
+                     : exact.entrySet()) {
+                for (String sha1 : entry.getValue()) {
+                    writeRecord(out, sha1, entry.getKey());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), log.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            readKey = Files.readAttributes(log.toPath(),
+                                           BasicFileAttributes.class)
+                .fileKey();
+            read = log.length();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forget every commit read from the log. */
+    private void clear() {
+        exact.clear();
+        words.clear();
+        size = 0;
+        read = 0;
+        readKey = null;
+    }
+
+    /** Add the records of IN, the log from the last position read up to
+     *  END, to the index.
+     * @param in log contents
+     * @param end length of the log
+     * */
+    private void readRecords(DataInputStream in, long end)
+        throws IOException {
+        if (read == 0) {
+            if (end < HEADER) {
+                return;
+            }
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalArgumentException("bad message index");
+            }
+            read = HEADER;
+        }
+        try {
+            while (read < end) {
+                String sha1 = BinaryFormat.readId(in);
+                int length = in.readInt();
+                if (length < 0
+                    || length > end - read - PackFile.ID_BYTES - 4) {
+                    return;
+                }
+                byte[] message = new byte[length];
+                in.readFully(message);
+                add(sha1, new String(message, StandardCharsets.UTF_8));
+                read += PackFile.ID_BYTES + 4 + message.length;
+            }
+        } catch (EOFException excp) {
+            return;
+        }
+    }
+
+    /** Write the header of a log to OUT.
+     * @param out output
+     * */
+    private static void writeHeader(DataOutputStream out)
+        throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /** Write the record of commit SHA1 with message MESSAGE to OUT.
+     * @param out output
+     * @param sha1 commit id
+     * @param message commit message
+     * */
+    private static void writeRecord(DataOutputStream out, String sha1,
+                                    String message) throws IOException {
+        BinaryFormat.writeId(out, sha1);
+        BinaryFormat.writeString(out, message);
+    }
+
+    /** Add commit SHA1 with message MESSAGE to the index.
+     * @param sha1 commit id
+     * @param message commit message
+     * */
+    public void add(String sha1, String message) {
+        if (exact.computeIfAbsent(message, k -> new TreeSet<>()).add(sha1)) {
+            size += 1;
+        }
+        for (String word : tokenize(message)) {
+            words.computeIfAbsent(word, k -> new HashSet<>()).add(message);
+        }
+    }
+
+    /** Get the number of commits indexed.
+     * @return size
+     * */
+    public int size() {
+        return size;
+    }
+
+    /** Find the commits whose message is exactly MESSAGE.
+     * @param message message
+     * @return commit ids, sorted
+     * */
+    public TreeSet<String> find(String message) {
+        TreeSet<String> result = exact.get(message);
+        return result == null ? new TreeSet<>() : result;
+    }
+
+    /** Find the commits whose message contains TEXT, ignoring case.
+     *  Only messages having, for every word of TEXT, a word that contains
+     *  it are examined.
+     * @param text text to look for
+     * @return commit ids, sorted
+     * */
+    public TreeSet<String> findSubstring(String text) {
+        Set<String> candidates = null;
+        for (String part : tokenize(text)) {
+            HashSet<String> matching = new HashSet<>();
+            for (String word : words.keySet()) {
+                if (word.contains(part)) {
+                    matching.addAll(words.get(word));
+                }
+            }
+            if (candidates == null) {
+                candidates = matching;
+            } else {
+                candidates.retainAll(matching);
+            }
+        }
+        if (candidates == null) {
+            candidates = exact.keySet();
+        }
+        String needle = text.toLowerCase(Locale.ROOT);
+        TreeSet<String> result = new TreeSet<>();
+        for (String message : candidates) {
+            if (message.toLowerCase(Locale.ROOT).contains(needle)) {
+                result.addAll(exact.get(message));
+            }
+        }
+        return result;
+    }
+
+    /** Find the commits whose message matches REGEX somewhere.  Each
+     *  distinct message is matched once, however many commits carry it.
+     * @param regex a java.util.regex pattern
+     * @return commit ids, sorted
+     * */
+    public TreeSet<String> findRegex(String regex) {
+        Pattern pattern = Pattern.compile(regex);
+        TreeSet<String> result = new TreeSet<>();
+        for (String message : exact.keySet()) {
+            if (pattern.matcher(message).find()) {
+                result.addAll(exact.get(message));
+            }
+        }
+        return result;
+    }
+
+    /** Split TEXT into lower-case words.
+     * @param text text
+     * @return words
+     * */
+    static Set<String> tokenize(String text) {
+        HashSet<String> result = new HashSet<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("\\W+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,139 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** The on-disk format of loose objects.  An object file starts with a
+ *  four-byte magic number and a byte naming the codec of the rest of the
+ *  file.  Files written before codecs existed have no header and are
+ *  read as they are.
+ *  @author Hanqi Xiong
+ */
+class ObjectCodec {
+
+    /** Codec of contents stored as they are. */
+    static final int STORED = 0;
+
+    /** Codec of contents compressed with a Deflater. */
+    static final int DEFLATE = 1;
+
+    /** The magic number opening every object file. */
+    private static final byte[] MAGIC = {0, 'g', 'l', 'o'};
+
+    /** Length of the header. */
+    private static final int HEADER = MAGIC.length + 1;
+
+    /** Amount of the contents that is trial-compressed to pick a codec. */
+    private static final int SAMPLE = 1 << 16;
+
+    /** Contents shorter than this are never compressed. */
+    private static final int MIN_DEFLATE = 64;
+
+    /** Leading bytes of formats that are already compressed: zip, gzip,
+     *  png, jpeg, bzip2, xz and 7z. */
+    private static final byte[][] COMPRESSED = {
+        {'P', 'K', 3, 4}, {(byte) 0x1f, (byte) 0x8b},
+        {(byte) 0x89, 'P', 'N', 'G'}, {(byte) 0xff, (byte) 0xd8, (byte) 0xff},
+        {'B', 'Z', 'h'}, {(byte) 0xfd, '7', 'z', 'X', 'Z'},
+        {'7', 'z', (byte) 0xbc, (byte) 0xaf},
+    };
+
+    /** Write CONTENTS to FILE, compressing them unless that does not pay
+     *  off. */
+    static void write(File file, byte[] contents) {
+        try (OutputStream out = output(file, choose(contents,
+                                                    contents.length))) {
+            out.write(contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the codec to use for contents whose first bytes are the
+     *  first LENGTH bytes of SAMPLE. */
+    static int choose(byte[] sample, int length) {
+        if (length < MIN_DEFLATE) {
+            return STORED;
+        }
+        for (byte[] signature : COMPRESSED) {
+            if (length >= signature.length
+                && Arrays.equals(sample, 0, signature.length,
+                                 signature, 0, signature.length)) {
+                return STORED;
+            }
+        }
+        int n = Math.min(length, SAMPLE);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(sample, 0, n);
+            deflater.finish();
+            byte[] scratch = new byte[n];
+            int size = 0;
+            while (!deflater.finished() && size < n) {
+                size += deflater.deflate(scratch);
+            }
+            return size * 10 < n * 9 ? DEFLATE : STORED;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Return a stream writing an object with codec CODEC to FILE. */
+    static OutputStream output(File file, int codec) throws IOException {
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        OutputStream out =
+            new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+        out.write(MAGIC);
+        out.write(codec);
+        if (codec == DEFLATE) {
+            return new DeflaterOutputStream(out);
+        }
+        return out;
+    }
+
+    /** Return a stream reading the contents of the object in FILE. */
+    static InputStream input(File file) throws IOException {
+        InputStream in =
+            new BufferedInputStream(Files.newInputStream(file.toPath()));
+        in.mark(HEADER);
+        byte[] header = in.readNBytes(HEADER);
+        if (header.length < HEADER
+            || !Arrays.equals(header, 0, MAGIC.length,
+                              MAGIC, 0, MAGIC.length)) {
+            in.reset();
+            return in;
+        }
+        switch (header[MAGIC.length]) {
+        case STORED:
+            return in;
+        case DEFLATE:
+            return new InflaterInputStream(in);
+        default:
+            in.close();
+            throw new IllegalArgumentException("unknown codec in " + file);
+        }
+    }
+
+    /** Return the contents of the object in FILE. */
+    static byte[] read(File file) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try (InputStream in = input(file)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+/** A content-addressed store of objects kept in a directory.  Objects are
+ *  first written loose, one file per object encoded by ObjectCodec and
+ *  fanned out by the first two hex digits of its id, so that object
+ *  ab01... lives in ab/01...; repack rolls the loose objects into a single
+ *  packfile under the pack subdirectory.
+ *  Reads resolve an id against the loose objects first and the pack next,
+ *  so callers never need to know where an object lives.
+ *  @author Hanqi Xiong
+ */
+class ObjectStore {
+
+    /** Longest chain of deltas that repack will build. */
+    static final int MAX_DEPTH = 10;
+
+    /** Size of the buffer through which ingest copies a file. */
+    private static final int INGEST_BUFFER = 1 << 16;
+
+    /** The directory holding the loose objects. */
+    private final File dir;
+
+    /** The directory holding the pack. */
+    private final File packDir;
+
+    /** The currently open pack, or null if not yet opened. */
+    private PackFile pack;
+
+    /** True iff PACK reflects the pack directory. */
+    private boolean packLoaded;
+
+    /** Modification time of the pack directory when PACK was opened. */
+    private long packStamp;
+
+    /** A store whose objects live in DIR. */
+    ObjectStore(File dir) {
+        this.dir = dir;
+        this.packDir = new File(dir, "pack");
+    }
+
+    /** Return the file holding loose object ID.  Objects written before
+     *  the store was sharded are found at the top level until migrated. */
+    File file(String id) {
+        File sharded = new File(new File(dir, id.substring(0, 2)),
+                                id.substring(2));
+        if (!sharded.isFile()) {
+            File flat = new File(dir, id);
+            if (flat.isFile()) {
+                return flat;
+            }
+        }
+        return sharded;
+    }
+
+    /** Return true iff the store holds object ID. */
+    boolean contains(String id) {
+        if (file(id).isFile()) {
+            return true;
+        }
+        PackFile p = pack();
+        return p != null && p.contains(id);
+    }
+
+    /** Return the contents of object ID.  Throws IllegalArgumentException
+     *  if there is no such object. */
+    byte[] read(String id) {
+        File loose = file(id);
+        if (loose.isFile()) {
+            return ObjectCodec.read(loose);
+        }
+        PackFile p = pack();
+        byte[] result = p == null ? null : p.read(id);
+        if (result == null) {
+            throw new IllegalArgumentException("no object " + id);
+        }
+        return result;
+    }
+
+    /** Write the contents of object ID to TARGET, replacing it.  Loose
+     *  objects are streamed rather than read whole.  Throws
+     *  IllegalArgumentException if there is no such object. */
+    void copy(String id, File target) {
+        File loose = file(id);
+        try {
+            if (loose.isFile()) {
+                try (InputStream in = ObjectCodec.input(loose)) {
+                    Files.copy(in, target.toPath(),
+                               StandardCopyOption.REPLACE_EXISTING);
+                }
+            } else {
+                Files.write(target.toPath(), read(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store CONTENTS as object ID, unless it is already present. */
+    void write(String id, byte[] contents) {
+        if (!contains(id)) {
+            ObjectCodec.write(newFile(id), contents);
+        }
+    }
+
+    /** Store the contents of SOURCE and return their id, in one pass
+     *  that copies them to a temporary object while hashing them.  The
+     *  temporary object is then renamed into place, or dropped if the
+     *  store already holds that id, so that memory use does not grow
+     *  with the size of SOURCE. */
+    String ingest(File source) {
+        dir.mkdirs();
+        File tmp;
+        try {
+            tmp = File.createTempFile("tmp-", null, dir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            byte[] buffer = new byte[INGEST_BUFFER];
+            int n = in.readNBytes(buffer, 0, buffer.length);
+            MessageDigest md = Hashing.digest();
+            try (OutputStream out =
+                     ObjectCodec.output(tmp, ObjectCodec.choose(buffer, n))) {
+                for (; n > 0; n = in.read(buffer)) {
+                    md.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
+            }
+            String id = Hashing.hex(md.digest());
+            if (contains(id)) {
+                tmp.delete();
+            } else {
+                Files.move(tmp.toPath(), newFile(id).toPath(),
+                           StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+            return id;
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the ids of all objects in the store, in sorted order. */
+    List<String> ids() {
+        TreeSet<String> result = new TreeSet<>(looseIds());
+        PackFile p = pack();
+        if (p != null) {
+            for (int k = 0; k < p.size(); k += 1) {
+                result.add(p.idAt(k));
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the ids of all objects whose id starts with PREFIX, in
+     *  sorted order. */
+    List<String> resolve(String prefix) {
+        TreeSet<String> result = new TreeSet<>();
+        if (prefix.length() < 2) {
+            for (String id : ids()) {
+                if (id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+            return new ArrayList<>(result);
+        }
+        String shard = prefix.substring(0, 2);
+        List<String> names = Utils.plainFilenamesIn(new File(dir, shard));
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(prefix.substring(2))) {
+                    result.add(shard + name);
+                }
+            }
+        }
+        String[] flat = dir.list((d, name) -> name.startsWith(prefix)
+                                 && name.length() == Utils.UID_LENGTH);
+        if (flat != null) {
+            result.addAll(Arrays.asList(flat));
+        }
+        PackFile p = pack();
+        if (p != null) {
+            result.addAll(p.idsWithPrefix(prefix));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Move every loose object still stored at the top level into its
+     *  shard.  Returns the number of objects moved. */
+    int shard() {
+        String[] flat = dir.list((d, name) ->
+                                 name.length() == Utils.UID_LENGTH
+                                 && new File(d, name).isFile());
+        if (flat == null) {
+            return 0;
+        }
+        for (String id : flat) {
+            File target = newFile(id);
+            try {
+                Files.move(new File(dir, id).toPath(), target.toPath(),
+                           StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return flat.length;
+    }
+
+    /** Roll every object of this store into one new pack.  HISTORIES
+     *  lists, for each path, the ids of its successive versions from the
+     *  newest to the oldest; each version is stored as a delta against the
+     *  next newer one whenever that is substantially smaller than storing
+     *  it whole.  Returns the number of objects packed. */
+    int repack(Collection<List<String>> histories) {
+        List<String> ids = ids();
+        HashSet<String> known = new HashSet<>(ids);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        packDir.mkdir();
+        File tmpPack = new File(packDir, "tmp-pack");
+        File tmpIndex = new File(packDir, "tmp-idx");
+        PackFile.Writer writer = new PackFile.Writer(tmpPack);
+        for (List<String> versions : histories) {
+            String base = null;
+            byte[] baseData = null;
+            int depth = 0;
+            for (String id : versions) {
+                if (!known.contains(id) || writer.contains(id)) {
+                    continue;
+                }
+                byte[] data = read(id);
+                byte[] delta = null;
+                if (base != null && depth < MAX_DEPTH) {
+                    delta = Delta.create(baseData, data);
+                }
+                if (delta != null && delta.length < data.length / 2) {
+                    writer.addDelta(id, base, delta);
+                    depth += 1;
+                } else {
+                    writer.addFull(id, data);
+                    depth = 0;
+                }
+                base = id;
+                baseData = data;
+            }
+        }
+        for (String id : ids) {
+            if (!writer.contains(id)) {
+                writer.addFull(id, read(id));
+            }
+        }
+        writer.finish(tmpPack, tmpIndex);
+        String name = "pack-" + Utils.sha1(String.join("", ids));
+        closePack();
+        List<File> stale = packFiles();
+        try {
+            Files.move(tmpPack.toPath(), new File(packDir, name + ".pack")
+                       .toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpIndex.toPath(), new File(packDir, name + ".idx")
+                       .toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (File f : stale) {
+            if (!f.getName().startsWith(name + ".")) {
+                f.delete();
+            }
+        }
+        for (String id : looseIds()) {
+            file(id).delete();
+        }
+        return ids.size();
+    }
+
+    /** Return the ids of all loose objects. */
+    private List<String> looseIds() {
+        List<String> result = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) {
+            return result;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            if (name.length() == Utils.UID_LENGTH) {
+                result.add(name);
+            } else if (name.matches("[0-9a-f]{2}")) {
+                List<String> shard =
+                    Utils.plainFilenamesIn(new File(dir, name));
+                if (shard != null) {
+                    for (String rest : shard) {
+                        result.add(name + rest);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the sharded file that will hold new object ID, creating
+     *  its shard directory if needed. */
+    private File newFile(String id) {
+        File shard = new File(dir, id.substring(0, 2));
+        shard.mkdirs();
+        return new File(shard, id.substring(2));
+    }
+
+    /** Return the pack and index files currently in the pack directory. */
+    private List<File> packFiles() {
+        List<File> result = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(packDir);
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith("pack-")) {
+                    result.add(new File(packDir, name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Close the open pack if the pack directory changed since it was
+     *  opened, as when another process repacked the store and deleted
+     *  the loose objects it packed.  A long-running process calls this
+     *  before each command. */
+    synchronized void refresh() {
+        if (packLoaded && packDir.lastModified() != packStamp) {
+            closePack();
+        }
+    }
+
+    /** Return the open pack of this store, or null if it has none. */
+    private synchronized PackFile pack() {
+        if (!packLoaded) {
+            packLoaded = true;
+            packStamp = packDir.lastModified();
+            for (File f : packFiles()) {
+                String name = f.getName();
+                if (name.endsWith(".idx")) {
+                    File p = new File(packDir, name.substring(0,
+                                       name.length() - 4) + ".pack");
+                    if (p.isFile()) {
+                        pack = new PackFile(p, f);
+                    }
+                }
+            }
+        }
+        return pack;
+    }
+
+    /** Close the open pack, if any. */
+    private synchronized void closePack() {
+        if (pack != null) {
+            pack.close();
+        }
+        pack = null;
+        packLoaded = false;
+    }
+}
@@ -0,0 +1,281 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** A packfile holding many blobs, some stored whole and some as deltas
+ *  against another object of the same pack, together with its index.
+ *  The pack starts with a header followed by its entries; each entry is
+ *  a type byte, the offset of its base (delta entries only), the payload
+ *  length and the payload.  The index is a header followed by fixed-size
+ *  records of a raw 20-byte id and the offset of its entry, sorted by id,
+ *  so that it can be memory-mapped and binary-searched.
+ *  @author Hanqi Xiong
+ */
+class PackFile {
+
+    /** Magic number opening a pack. */
+    static final int PACK_MAGIC = 0x4750414b;
+
+    /** Magic number opening an index. */
+    static final int INDEX_MAGIC = 0x47494458;
+
+    /** Current format version. */
+    static final int VERSION = 1;
+
+    /** Entry type of an object stored whole. */
+    static final int FULL = 0;
+
+    /** Entry type of an object stored as a delta. */
+    static final int DELTA = 1;
+
+    /** Length in bytes of a raw object id. */
+    static final int ID_BYTES = 20;
+
+    /** Length of an index record. */
+    private static final int RECORD = ID_BYTES + 8;
+
+    /** Length of the header of both files. */
+    private static final int HEADER = 12;
+
+    /** The pack contents. */
+    private final FileChannel pack;
+
+    /** The memory-mapped index. */
+    private final MappedByteBuffer index;
+
+    /** Number of objects in this pack. */
+    private final int count;
+
+    /** Open the pack PACKFILE with index INDEXFILE. */
+    PackFile(File packFile, File indexFile) {
+        try (FileChannel idx = FileChannel.open(indexFile.toPath())) {
+            index = idx.map(FileChannel.MapMode.READ_ONLY, 0, idx.size());
+            if (index.getInt(0) != INDEX_MAGIC
+                || index.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("bad pack index");
+            }
+            count = index.getInt(8);
+            pack = FileChannel.open(packFile.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Return the id of the K-th object in index order. */
+    String idAt(int k) {
+        byte[] raw = new byte[ID_BYTES];
+        index.get(HEADER + k * RECORD, raw);
+        return toHex(raw);
+    }
+
+    /** Return the ids of the objects in this pack that start with PREFIX,
+     *  in sorted order. */
+    List<String> idsWithPrefix(String prefix) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (idAt(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (int k = lo; k < count; k += 1) {
+            String id = idAt(k);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        return result;
+    }
+
+    /** Return true iff this pack holds object ID. */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Return the contents of object ID, or null if not in this pack. */
+    byte[] read(String id) {
+        int k = find(id);
+        if (k < 0) {
+            return null;
+        }
+        return readAt(index.getLong(HEADER + k * RECORD + ID_BYTES));
+    }
+
+    /** Close this pack. */
+    void close() {
+        try {
+            pack.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the contents of the entry at OFFSET, resolving deltas. */
+    private byte[] readAt(long offset) {
+        try {
+            ByteBuffer head = ByteBuffer.allocate(13);
+            pack.read(head, offset);
+            head.flip();
+            int type = head.get();
+            long base = 0;
+            if (type == DELTA) {
+                base = head.getLong();
+            }
+            int length = head.getInt();
+            long start = offset + (type == DELTA ? 13 : 5);
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            while (payload.hasRemaining()) {
+                if (pack.read(payload, start + payload.position()) < 0) {
+                    throw new IllegalArgumentException("truncated pack");
+                }
+            }
+            if (type == DELTA) {
+                return Delta.apply(readAt(base), payload.array());
+            }
+            return payload.array();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the index position of ID, or -1 if absent. */
+    private int find(String id) {
+        if (!id.matches("[0-9a-f]{40}")) {
+            return -1;
+        }
+        byte[] key = toRaw(id);
+        byte[] probe = new byte[ID_BYTES];
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            index.get(HEADER + mid * RECORD, probe);
+            int c = Arrays.compareUnsigned(probe, key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Accumulates the entries of a new pack. */
+    static class Writer {
+
+        /** The pack being written. */
+        private final DataOutputStream out;
+
+        /** Offsets of the entries written so far. */
+        private final HashMap<String, Long> offsets = new HashMap<>();
+
+        /** Current write offset. */
+        private long offset;
+
+        /** Start writing a pack to PACKFILE. */
+        Writer(File packFile) {
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(packFile.toPath())));
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0);
+                offset = HEADER;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Return true iff object ID has been written. */
+        boolean contains(String id) {
+            return offsets.containsKey(id);
+        }
+
+        /** Add object ID with contents DATA. */
+        void addFull(String id, byte[] data) {
+            try {
+                offsets.put(id, offset);
+                out.writeByte(FULL);
+                out.writeInt(data.length);
+                out.write(data);
+                offset += 5 + data.length;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Add object ID as DELTA against the already written BASE. */
+        void addDelta(String id, String base, byte[] delta) {
+            try {
+                offsets.put(id, offset);
+                out.writeByte(DELTA);
+                out.writeLong(offsets.get(base));
+                out.writeInt(delta.length);
+                out.write(delta);
+                offset += 13 + delta.length;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Finish the pack and write its index to INDEXFILE. */
+        void finish(File packFile, File indexFile) {
+            try {
+                out.close();
+                try (FileChannel ch = FileChannel.open(packFile.toPath(),
+                                              StandardOpenOption.WRITE)) {
+                    ByteBuffer n = ByteBuffer.allocate(4);
+                    n.putInt(offsets.size()).flip();
+                    ch.write(n, 8);
+                }
+                List<String> ids = new ArrayList<>(offsets.keySet());
+                ids.sort(null);
+                DataOutputStream idx = new DataOutputStream(
+                    new BufferedOutputStream(
+                        Files.newOutputStream(indexFile.toPath())));
+                idx.writeInt(INDEX_MAGIC);
+                idx.writeInt(VERSION);
+                idx.writeInt(ids.size());
+                for (String id : ids) {
+                    idx.write(toRaw(id));
+                    idx.writeLong(offsets.get(id));
+                }
+                idx.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Return the raw bytes of the hexadecimal id HEX. */
+    static byte[] toRaw(String hex) {
+        return Hashing.unhex(hex);
+    }
+
+    /** Return the hexadecimal form of the raw id RAW. */
+    static String toHex(byte[] raw) {
+        return Hashing.hex(raw);
+    }
+}
@@ -0,0 +1,181 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/** The branches of a repository packed in one file.  Each line is the
+ *  40-digit id of a branch's head, a space, and the branch name; the
+ *  lines are sorted by the UTF-8 bytes of the names, so that a branch
+ *  is found by a binary search of the memory-mapped file.  The file is
+ *  only ever replaced whole, by an atomic rename, and is mapped again
+ *  whenever it has been replaced.
+ *  @author Hanqi Xiong
+ */
+class PackedRefs {
+
+    /** Length of the id and space opening each line. */
+    private static final int ID_FIELD = Hashing.RAW_LENGTH * 2 + 1;
+
+    /** Branches are packed in FILE. */
+    PackedRefs(File file) {
+        _file = file;
+    }
+
+    /** Return the head of branch NAME, or null if it is not packed. */
+    synchronized String get(String name) {
+        ByteBuffer refs = map();
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int lo = 0, hi = refs.limit();
+        while (lo < hi) {
+            int start = lineStart(refs, lo + (hi - lo) / 2);
+            int end = lineEnd(refs, start);
+            int c = compare(refs, start + ID_FIELD, end, key);
+            if (c < 0) {
+                lo = end + 1;
+            } else if (c > 0) {
+                hi = start;
+            } else {
+                byte[] id = new byte[ID_FIELD - 1];
+                refs.get(start, id);
+                return new String(id, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /** Return all packed branches, mapped to their heads. */
+    synchronized TreeMap<String, String> all() {
+        ByteBuffer refs = map();
+        TreeMap<String, String> result = new TreeMap<>();
+        for (int start = 0; start < refs.limit();) {
+            int end = lineEnd(refs, start);
+            byte[] line = new byte[end - start];
+            refs.get(start, line);
+            String text = new String(line, StandardCharsets.UTF_8);
+            result.put(text.substring(ID_FIELD),
+                       text.substring(0, ID_FIELD - 1));
+            start = end + 1;
+        }
+        return result;
+    }
+
+    /** Replace the packed branches by REFS, mapping names to heads.  The
+     *  new file is written aside and renamed over the old one, so that
+     *  readers see either all of the old branches or all of the new. */
+    synchronized void write(Map<String, String> refs) {
+        List<byte[]> names = new ArrayList<>();
+        for (String name : refs.keySet()) {
+            names.add(name.getBytes(StandardCharsets.UTF_8));
+        }
+        names.sort(Arrays::compareUnsigned);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp-", null, _file.getParentFile());
+            try (OutputStream out = new BufferedOutputStream(
+                     Files.newOutputStream(tmp.toPath()))) {
+                for (byte[] name : names) {
+                    String id = refs.get(new String(name,
+                                                    StandardCharsets.UTF_8));
+                    out.write(id.getBytes(StandardCharsets.UTF_8));
+                    out.write(' ');
+                    out.write(name);
+                    out.write('\n');
+                }
+            }
+            Files.move(tmp.toPath(), _file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the contents of the file, mapping it again if it has been
+     *  replaced since last mapped.  A missing file has no branches. */
+    private ByteBuffer map() {
+        try {
+            if (!_file.isFile()) {
+                _key = null;
+                _refs = ByteBuffer.allocate(0);
+                return _refs;
+            }
+            BasicFileAttributes attrs =
+                Files.readAttributes(_file.toPath(),
+                                     BasicFileAttributes.class);
+            Object key = Arrays.asList(attrs.fileKey(),
+                                       attrs.lastModifiedTime(),
+                                       attrs.size());
+            if (_refs == null || !Objects.equals(key, _key)) {
+                try (FileChannel in = FileChannel.open(_file.toPath())) {
+                    _refs = in.map(FileChannel.MapMode.READ_ONLY, 0,
+                                   in.size());
+                }
+                _key = key;
+            }
+            return _refs;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the start of the line of REFS containing position P. */
+    private static int lineStart(ByteBuffer refs, int p) {
+        while (p > 0 && refs.get(p - 1) != '\n') {
+            p -= 1;
+        }
+        return p;
+    }
+
+    /** Return the position of the newline ending the line of REFS that
+     *  starts at START. */
+    private static int lineEnd(ByteBuffer refs, int start) {
+        int p = start;
+        while (p < refs.limit() && refs.get(p) != '\n') {
+            p += 1;
+        }
+        return p;
+    }
+
+    /** Compare the bytes [START .. END - 1] of REFS with KEY, as unsigned
+     *  bytes, returning a negative, zero or positive value as they are
+     *  less than, equal to or greater than KEY. */
+    private static int compare(ByteBuffer refs, int start, int end,
+                               byte[] key) {
+        int n = Math.min(end - start, key.length);
+        for (int i = 0; i < n; i += 1) {
+            int c = Byte.toUnsignedInt(refs.get(start + i))
+                - Byte.toUnsignedInt(key[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return (end - start) - key.length;
+    }
+
+    /** The file holding the packed branches. */
+    private final File _file;
+
+    /** The file contents as last mapped, or null. */
+    private ByteBuffer _refs;
+
+    /** Identity, modification time and size of the file when last
+     *  mapped. */
+    private Object _key;
+}
@@ -0,0 +1,331 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/** A gitlet repository opened on a directory, for programs that drive
+ *  repositories in-process instead of running the command line.
+ *
+ *  The operations are those of the commands, with results returned
+ *  rather than printed.  Errors are thrown as GitletException.NotFound,
+ *  Conflict or Invalid, carrying the message the command would print.
+ *  Operations that only read commits, files and branches may run on any
+ *  number of threads at once, and change nothing: the commit graph and
+ *  indices they use are brought up to date by the operations that
+ *  change the repository, or alone before a read that finds them
+ *  behind the commits of another process.  Those that change the
+ *  repository, and status, which scans the working directory, run one
+ *  at a time and exclude the reads.  Instances share nothing, so one
+ *  may be opened per directory and each used from many threads; a
+ *  directory should be changed through one instance only.
+ *  @author Hanqi Xiong
+ */
+public class Repository {
+
+    /** How a merge went. */
+    public enum MergeResult {
+        /** The given branch is an ancestor of the current one, so
+         *  nothing changed. */
+        ANCESTOR,
+        /** The current branch was an ancestor of the given one, which
+         *  was checked out. */
+        FAST_FORWARD,
+        /** The branches were merged and the merge committed. */
+        MERGED,
+        /** The branches were merged, leaving conflict markers in some
+         *  files.  The merge is committed unless every change
+         *  conflicted. */
+        CONFLICTED
+    }
+
+    /** The branches of a repository, its staging area, and how its
+     *  working directory differs from the head commit. */
+    public static final class Status {
+        /** The current branch. */
+        private final String branch;
+        /** All branches, sorted. */
+        private final List<String> branches;
+        /** Files staged for addition and removal, sorted. */
+        private final List<String> staged, removed;
+        /** Tracked files "modified" or "deleted" in the working
+         *  directory, by path. */
+        private final SortedMap<String, String> modified;
+        /** Files of the working directory neither tracked nor staged,
+         *  sorted. */
+        private final List<String> untracked;
+
+        /** The status with current branch BRANCH, branches BRANCHES,
+         *  staged files STAGED and REMOVED, changed files MODIFIED and
+         *  untracked files UNTRACKED. */
+        Status(String branch, List<String> branches, List<String> staged,
+               List<String> removed, SortedMap<String, String> modified,
+               List<String> untracked) {
+            this.branch = branch;
+            this.branches = Collections.unmodifiableList(branches);
+            this.staged = Collections.unmodifiableList(staged);
+            this.removed = Collections.unmodifiableList(removed);
+            this.modified = Collections.unmodifiableSortedMap(modified);
+            this.untracked = Collections.unmodifiableList(untracked);
+        }
+
+        /** Return the current branch. */
+        public String branch() {
+            return branch;
+        }
+
+        /** Return all branches, sorted. */
+        public List<String> branches() {
+            return branches;
+        }
+
+        /** Return the files staged for addition, sorted. */
+        public List<String> staged() {
+            return staged;
+        }
+
+        /** Return the files staged for removal, sorted. */
+        public List<String> removed() {
+            return removed;
+        }
+
+        /** Return the tracked files changed in the working directory,
+         *  mapped to "modified" or "deleted". */
+        public SortedMap<String, String> modified() {
+            return modified;
+        }
+
+        /** Return the untracked files, sorted. */
+        public List<String> untracked() {
+            return untracked;
+        }
+    }
+
+    /** The repository REPO. */
+    private Repository(CommitTree repo) {
+        _repo = repo;
+    }
+
+    /** Return the repository whose working directory is DIR.  Throws
+     *  GitletException.NotFound if DIR holds none. */
+    public static Repository open(File dir) {
+        CommitTree repo = new CommitTree(dir);
+        if (!repo.exists()) {
+            throw new GitletException.NotFound(
+                "Not in an initialized Gitlet directory");
+        }
+        Repository result = new Repository(repo);
+        result.write(() -> null);
+        return result;
+    }
+
+    /** Create a repository whose working directory is DIR, and return
+     *  it.  Throws GitletException.Conflict if DIR holds one already. */
+    public static Repository init(File dir) {
+        CommitTree repo = new CommitTree(dir);
+        repo.init();
+        return new Repository(repo);
+    }
+
+    /** Return the working directory. */
+    public File directory() {
+        return _repo.root();
+    }
+
+    /** Return the id of the head commit. */
+    public String head() {
+        return read(_repo::readHead);
+    }
+
+    /** Return the name of the current branch. */
+    public String currentBranch() {
+        return read(_repo::currentBranch);
+    }
+
+    /** Return the names of all branches, sorted. */
+    public List<String> branches() {
+        return read(() -> Collections.unmodifiableList(_repo.refNames()));
+    }
+
+    /** Return the id of the head of branch NAME. */
+    public String branchHead(String name) {
+        String id = read(() -> _repo.readRef(name));
+        if (id == null) {
+            throw new GitletException.NotFound("No such branch exists");
+        }
+        return id;
+    }
+
+    /** Return the full id of the one commit whose id starts with
+     *  PREFIX. */
+    public String resolve(String prefix) {
+        return read(() -> _repo.lookupCommit(prefix));
+    }
+
+    /** Return the commit whose id is or starts with ID. */
+    public Commit getCommit(String id) {
+        return read(() -> _repo.getCommit(_repo.lookupCommit(id)));
+    }
+
+    /** Return up to LIMIT commits of the current branch, from the head
+     *  back along first parents. */
+    public List<Commit> log(int limit) {
+        return read(() -> Collections.unmodifiableList(
+            _repo.history(_repo.readHead(), limit)));
+    }
+
+    /** Return the files of commit ID, mapped to their blob ids. */
+    public SortedMap<String, String> files(String id) {
+        return read(() -> _repo.getCommit(_repo.lookupCommit(id))
+            .getBlobs());
+    }
+
+    /** Return the contents of the file at PATH in commit ID. */
+    public byte[] read(String id, String path) {
+        return read(() -> _repo.readFile(_repo.lookupCommit(id), path));
+    }
+
+    /** Return the ids of the commits with message MESSAGE, sorted. */
+    public Set<String> find(String message) {
+        return read(() -> Collections.unmodifiableSortedSet(
+            new TreeSet<>(_repo.messages().find(message))));
+    }
+
+    /** Return the status of the repository. */
+    public Status status() {
+        return write(_repo::scanStatus);
+    }
+
+    /** Stage FILES, each a file, a directory or a glob, relative to the
+     *  working directory, for addition. */
+    public void add(String... files) {
+        write(() -> {
+            _repo.add(files);
+            return null;
+        });
+    }
+
+    /** Stage FILE for removal, deleting it from the working directory
+     *  if it is tracked. */
+    public void remove(String file) {
+        write(() -> {
+            _repo.rm(file);
+            return null;
+        });
+    }
+
+    /** Commit the staged files with message MESSAGE, and return the id
+     *  of the new commit. */
+    public String commit(String message) {
+        return write(() -> _repo.commit(message, false, null));
+    }
+
+    /** Create branch NAME at the head commit. */
+    public void branch(String name) {
+        write(() -> {
+            _repo.branch(name);
+            return null;
+        });
+    }
+
+    /** Delete branch NAME. */
+    public void removeBranch(String name) {
+        write(() -> {
+            _repo.rmBranch(name);
+            return null;
+        });
+    }
+
+    /** Check out the head of branch NAME and make it current. */
+    public void checkout(String name) {
+        write(() -> {
+            _repo.checkoutBranch(name);
+            return null;
+        });
+    }
+
+    /** Write the file at PATH in commit ID to the working directory. */
+    public void checkout(String id, String path) {
+        write(() -> {
+            _repo.checkout(path, id);
+            return null;
+        });
+    }
+
+    /** Check out commit ID and move the current branch to it. */
+    public void reset(String id) {
+        write(() -> {
+            _repo.reset(id);
+            return null;
+        });
+    }
+
+    /** Merge branch NAME into the current branch, and return how it
+     *  went.  When every change conflicted there is nothing to commit:
+     *  the conflict markers are left in the working directory and
+     *  CONFLICTED is returned without a merge commit. */
+    public MergeResult merge(String name) {
+        return write(() -> {
+            MergeResult[] reported = new MergeResult[1];
+            try {
+                return _repo.merge(name, result -> reported[0] = result);
+            } catch (GitletException.Invalid excp) {
+                if (reported[0] != MergeResult.CONFLICTED) {
+                    throw excp;
+                }
+                return reported[0];
+            }
+        });
+    }
+
+    /** Return the result of READER, run while no change is made.
+     *  Readers only read the commit graph and indices; if another
+     *  process added commits they do not cover, they are brought up to
+     *  date alone first. */
+    private <T> T read(Supplier<T> reader) {
+        while (true) {
+            Lock lock = _lock.readLock();
+            lock.lock();
+            try {
+                if (_repo.indexesCurrent()) {
+                    return reader.get();
+                }
+            } finally {
+                lock.unlock();
+            }
+            write(() -> null);
+        }
+    }
+
+    /** Return the result of WRITER, run alone, after forgetting what
+     *  the last operation learned about the working directory.  The
+     *  commit graph and indices are brought up to date with any commit
+     *  made, so that reads may share them. */
+    private <T> T write(Supplier<T> writer) {
+        Lock lock = _lock.writeLock();
+        lock.lock();
+        try {
+            _repo.refresh();
+            try {
+                return writer.get();
+            } finally {
+                _repo.updateIndexes();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The repository operated on. */
+    private final CommitTree _repo;
+
+    /** Shared by reads, and held alone by the other operations. */
+    private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+}
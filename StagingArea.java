@@ -1,10 +1,23 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Map;
 import java.util.TreeMap;
 
 public class StagingArea implements Serializable {
+    /** Pinned so that staging areas written by earlier versions load. */
+    private static final long serialVersionUID = 3276625975922126045L;
+
+    /** Magic number of the binary encoding of staging areas. */
+    static final int MAGIC = 0x4753;
+
+    /** Version of the binary encoding of staging areas. */
+    static final int VERSION = 1;
 
     /** The files added to the staging area. */
     private TreeMap<String, String> addedFiles;
@@ -69,4 +82,53 @@ public class StagingArea implements Serializable {
     public ArrayList<String> getRemoveFiles() {
         return removeFiles;
     }
+
+    /** Get the binary encoding of this staging area.
+     * @return encoding
+     * */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out =
+                    BinaryFormat.output(bytes, MAGIC, VERSION);
+            out.writeInt(addedFiles.size());
+            for (Map.Entry<String, String> added : addedFiles.entrySet()) {
+                BinaryFormat.writeString(out, added.getKey());
+                BinaryFormat.writeId(out, added.getValue());
+            }
+            out.writeInt(removeFiles.size());
+            for (String removed : removeFiles) {
+                BinaryFormat.writeString(out, removed);
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding staging area.");
+        }
+    }
+
+    /** Get the staging area encoded in DATA, which may also be a staging
+     *  area serialized by an earlier version of gitlet.
+     * @param data encoding
+     * @return staging area
+     * */
+    public static StagingArea decode(byte[] data) {
+        if (BinaryFormat.isJavaSerialized(data)) {
+            return BinaryFormat.deserialize(data, StagingArea.class);
+        }
+        try {
+            DataInputStream in = BinaryFormat.input(data, MAGIC, VERSION);
+            StagingArea stage = new StagingArea();
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String name = BinaryFormat.readString(in);
+                stage.addedFiles.put(name, BinaryFormat.readId(in));
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                stage.removeFiles.add(BinaryFormat.readString(in));
+            }
+            return stage;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt staging area");
+        }
+    }
 }
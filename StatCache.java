@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/** A cache of the blob ids of working files, keyed by path and
+ *  validated by the files' size, modification time and file key (the
+ *  inode on Unix).  A file whose stat data still match its entry is not
+ *  read again.  An entry is trusted only if the file's modification
+ *  time is at least SLACK before the time the file was hashed: a file
+ *  changed within the timestamp granularity of the file system just
+ *  before or after hashing would otherwise keep its old id.
+ *  @author Hanqi Xiong
+ */
+class StatCache {
+
+    /** Magic number of the cache file. */
+    static final int MAGIC = 0x4749;
+
+    /** Version of the cache file. */
+    static final int VERSION = 1;
+
+    /** Bound on the timestamp granularity of file systems, in
+     *  milliseconds. */
+    static final long SLACK = 2000;
+
+    /** The stat data and blob id of one path. */
+    private static class Entry {
+        /** Size in bytes. */
+        private long size;
+        /** Modification time in nanoseconds since the epoch. */
+        private long mtime;
+        /** The file key, or "" if the file system has none. */
+        private String key;
+        /** The blob id of the contents. */
+        private String blob;
+        /** Time the contents were hashed, in milliseconds since the
+         *  epoch. */
+        private long hashed;
+        /** Last time the stat data were found unchanged or the contents
+         *  hashed, in milliseconds since the epoch. */
+        private long verified;
+
+        /** Return true iff ATTRS are the stat data of this entry and the
+         *  entry is not racy. */
+        boolean matches(BasicFileAttributes attrs) {
+            long time = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            return size == attrs.size() && mtime == time
+                && key.equals(keyOf(attrs))
+                && TimeUnit.NANOSECONDS.toMillis(mtime) + SLACK < hashed;
+        }
+    }
+
+    /** The cache file. */
+    private final File file;
+
+    /** The working tree whose files are cached. */
+    private final WorkingTree work;
+
+    /** The entries, by path, or null if not yet read. */
+    private TreeMap<String, Entry> entries;
+
+    /** True iff entries differ from the cache file. */
+    private boolean changed;
+
+    /** A cache of the files of WORK, kept in FILE. */
+    StatCache(File file, WorkingTree work) {
+        this.file = file;
+        this.work = work;
+    }
+
+    /** Return the blob id of the contents of the file at PATH, hashing
+     *  it only if its stat data changed since it was last hashed, or
+     *  null if there is no such file. */
+    String blob(String path) {
+        return blob(path, 0);
+    }
+
+    /** As for blob(PATH), but if the entry of PATH was last verified no
+     *  later than SINCE, record that it has been verified now.  Files are
+     *  hashed without holding the cache's lock, so that several threads
+     *  may hash at once. */
+    String blob(String path, long since) {
+        File f = work.file(path);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(f.toPath(),
+                                         BasicFileAttributes.class);
+        } catch (NoSuchFileException excp) {
+            attrs = null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (attrs == null || !attrs.isRegularFile()) {
+            remove(path);
+            return null;
+        }
+        synchronized (this) {
+            load();
+            Entry entry = entries.get(path);
+            if (entry != null && entry.matches(attrs)) {
+                if (entry.verified <= since) {
+                    entry.verified = System.currentTimeMillis();
+                    changed = true;
+                }
+                return entry.blob;
+            }
+        }
+        Entry entry = new Entry();
+        entry.hashed = System.currentTimeMillis();
+        entry.verified = entry.hashed;
+        entry.size = attrs.size();
+        entry.mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        entry.key = keyOf(attrs);
+        entry.blob = Hashing.file(f);
+        synchronized (this) {
+            entries.put(path, entry);
+            changed = true;
+        }
+        return entry.blob;
+    }
+
+    /** Return the blob id last recorded for PATH, without looking at
+     *  the file, if the entry was verified after time SINCE, in
+     *  milliseconds since the epoch, or else null. */
+    synchronized String cached(String path, long since) {
+        load();
+        Entry entry = entries.get(path);
+        return entry == null || entry.verified <= since ? null : entry.blob;
+    }
+
+    /** Make the entries of the paths CHANGED, and of the files under
+     *  those that are directories, untrusted by cached until each is
+     *  verified again, as the files may have changed since. */
+    synchronized void invalidate(Iterable<String> changed) {
+        load();
+        for (String path : changed) {
+            invalidate(entries.get(path));
+            for (Entry entry
+                     : entries.subMap(path + "/", path + "0").values()) {
+                invalidate(entry);
+            }
+        }
+    }
+
+    /** Mark ENTRY, if not null, as never verified. */
+    private void invalidate(Entry entry) {
+        if (entry != null && entry.verified != 0) {
+            entry.verified = 0;
+            changed = true;
+        }
+    }
+
+    /** Forget PATH. */
+    synchronized void remove(String path) {
+        load();
+        changed |= entries.remove(path) != null;
+    }
+
+    /** Write the cache back to its file if it changed. */
+    synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        Utils.writeContents(tmp, encode());
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        changed = false;
+    }
+
+    /** Read the cache file, if not yet done.  A missing or unreadable
+     *  file gives an empty cache. */
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new TreeMap<>();
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            DataInputStream in =
+                BinaryFormat.input(Utils.readContents(file), MAGIC, VERSION);
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String path = BinaryFormat.readString(in);
+                Entry entry = new Entry();
+                entry.size = in.readLong();
+                entry.mtime = in.readLong();
+                entry.key = BinaryFormat.readString(in);
+                entry.blob = BinaryFormat.readId(in);
+                entry.hashed = in.readLong();
+                entry.verified = in.readLong();
+                entries.put(path, entry);
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            entries.clear();
+            changed = true;
+        }
+    }
+
+    /** Return the encoding of the cache. */
+    private byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out =
+                BinaryFormat.output(bytes, MAGIC, VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                BinaryFormat.writeString(out, e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                BinaryFormat.writeString(out, entry.key);
+                BinaryFormat.writeId(out, entry.blob);
+                out.writeLong(entry.hashed);
+                out.writeLong(entry.verified);
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding stat cache.");
+        }
+    }
+
+    /** Return the file key of ATTRS as a string, or "" if none. */
+    private static String keyOf(BasicFileAttributes attrs) {
+        return Objects.toString(attrs.fileKey(), "");
+    }
+}
@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+/** A line-level three-way merge in the manner of diff3.  The lines of
+ *  the common ancestor that both sides kept, in the same order, split
+ *  the three versions into stable and unstable chunks.  An unstable
+ *  chunk changed on one side only takes that side's lines, and one
+ *  changed alike on both sides takes either; only a chunk the two sides
+ *  changed differently is a conflict, written as
+ *
+ *      <<<<<<< HEAD
+ *      our lines
+ *      =======
+ *      their lines
+ *      >>>>>>>
+ *
+ *  The lines keep their newlines, so a last line without one is merged
+ *  as such; within a conflict, a newline is added after it to keep the
+ *  markers on lines of their own.  The result is written line by line
+ *  as it is found.
+ *  @author Hanqi Xiong
+ */
+class ThreeWayMerge {
+
+    /** Opening marker of a conflict. */
+    static final String OURS = "<<<<<<< HEAD\n";
+
+    /** Marker between the two sides of a conflict. */
+    static final String SEPARATOR = "=======\n";
+
+    /** Closing marker of a conflict. */
+    static final String THEIRS = ">>>>>>>\n";
+
+    /** Write to OUT the merge of OURS and THEIRS, both derived from
+     *  BASE.  Return true iff there were conflicts. */
+    static boolean merge(List<String> base, List<String> ours,
+                         List<String> theirs, Writer out) throws IOException {
+        int[] toOurs = matching(base, ours);
+        int[] toTheirs = matching(base, theirs);
+        int n = base.size();
+        int i, a, b;
+        i = a = b = 0;
+        boolean conflicted = false;
+        while (i < n || a < ours.size() || b < theirs.size()) {
+            int k;
+            k = 0;
+            while (i + k < n && toOurs[i + k] == a + k
+                   && toTheirs[i + k] == b + k) {
+                out.write(base.get(i + k));
+                k += 1;
+            }
+            i += k;
+            a += k;
+            b += k;
+            if (k > 0) {
+                continue;
+            }
+            int o = i;
+            while (o < n && (toOurs[o] < 0 || toTheirs[o] < 0)) {
+                o += 1;
+            }
+            int endA = o == n ? ours.size() : toOurs[o];
+            int endB = o == n ? theirs.size() : toTheirs[o];
+            List<String> original = base.subList(i, o);
+            List<String> mine = ours.subList(a, endA);
+            List<String> yours = theirs.subList(b, endB);
+            if (mine.equals(original) || mine.equals(yours)) {
+                write(yours, out);
+            } else if (yours.equals(original)) {
+                write(mine, out);
+            } else {
+                conflicted = true;
+                out.write(OURS);
+                writeSide(mine, out);
+                out.write(SEPARATOR);
+                writeSide(yours, out);
+                out.write(THEIRS);
+            }
+            i = o;
+            a = endA;
+            b = endB;
+        }
+        return conflicted;
+    }
+
+    /** Return, for each line of BASE, the index of the line of OTHER it
+     *  is matched with by a longest common subsequence, or -1. */
+    private static int[] matching(List<String> base, List<String> other) {
+        int[] result = new int[base.size()];
+        Arrays.fill(result, -1);
+        Diff diff = new Diff();
+        diff.setSequences(base, other);
+        int[] common = diff.commonSubsequence();
+        for (int k = 0; k < common.length; k += 3) {
+            for (int j = 0; j < common[k + 2]; j += 1) {
+                result[common[k] + j] = common[k + 1] + j;
+            }
+        }
+        return result;
+    }
+
+    /** Write LINES to OUT. */
+    private static void write(List<String> lines, Writer out)
+        throws IOException {
+        for (String line : lines) {
+            out.write(line);
+        }
+    }
+
+    /** Write LINES, one side of a conflict, to OUT, ending with a
+     *  newline. */
+    private static void writeSide(List<String> lines, Writer out)
+        throws IOException {
+        write(lines, out);
+        if (!lines.isEmpty() && !lines.get(lines.size() - 1).endsWith("\n")) {
+            out.write('\n');
+        }
+    }
+}
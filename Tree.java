@@ -0,0 +1,248 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+
+/** A directory of a snapshot: the blob ids of the files it contains and
+ *  the tree ids of its subdirectories, by name.  Trees are stored in an
+ *  ObjectStore under the hash of their encoding, so two snapshots that
+ *  share a subdirectory share its tree, and a commit that changes one
+ *  file writes new trees only for the directories on that file's path.
+ *  Paths are relative to the root tree and use '/' as the separator.
+ *  @author Hanqi Xiong
+ */
+class Tree {
+
+    /** Magic number of the binary encoding of trees. */
+    static final int MAGIC = 0x4754;
+
+    /** Version of the binary encoding of trees. */
+    static final int VERSION = 1;
+
+    /** Entry tag of a file. */
+    private static final int FILE = 0;
+
+    /** Entry tag of a subdirectory. */
+    private static final int DIR = 1;
+
+    /** The blob ids of the files of this tree, by name. */
+    private final TreeMap<String, String> files = new TreeMap<>();
+
+    /** The tree ids of the subdirectories of this tree, by name. */
+    private final TreeMap<String, String> dirs = new TreeMap<>();
+
+    /** Return true iff this tree has no entries. */
+    boolean isEmpty() {
+        return files.isEmpty() && dirs.isEmpty();
+    }
+
+    /** Return the canonical encoding of this tree. */
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out =
+                BinaryFormat.output(bytes, MAGIC, VERSION);
+            out.writeInt(files.size() + dirs.size());
+            for (Map.Entry<String, String> e : files.entrySet()) {
+                out.writeByte(FILE);
+                BinaryFormat.writeString(out, e.getKey());
+                BinaryFormat.writeId(out, e.getValue());
+            }
+            for (Map.Entry<String, String> e : dirs.entrySet()) {
+                out.writeByte(DIR);
+                BinaryFormat.writeString(out, e.getKey());
+                BinaryFormat.writeId(out, e.getValue());
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding tree.");
+        }
+    }
+
+    /** Return the tree encoded in DATA. */
+    static Tree decode(byte[] data) {
+        try {
+            DataInputStream in = BinaryFormat.input(data, MAGIC, VERSION);
+            Tree tree = new Tree();
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                int tag = in.readUnsignedByte();
+                String name = BinaryFormat.readString(in);
+                String id = BinaryFormat.readId(in);
+                (tag == DIR ? tree.dirs : tree.files).put(name, id);
+            }
+            return tree;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt tree");
+        }
+    }
+
+    /** Return the tree ID from STORE; a null ID denotes an empty tree. */
+    static Tree read(ObjectStore store, String id) {
+        return id == null ? new Tree() : decode(store.read(id));
+    }
+
+    /** Store TREE in STORE and return its id. */
+    static String write(ObjectStore store, Tree tree) {
+        byte[] data = tree.encode();
+        String id = Utils.sha1(data);
+        store.write(id, data);
+        return id;
+    }
+
+    /** Store in STORE the trees of the snapshot whose files have the blob
+     *  ids in BLOBS, by path, and return the id of its root tree. */
+    static String build(ObjectStore store, Map<String, String> blobs) {
+        return update(store, null, new TreeMap<>(blobs));
+    }
+
+    /** Store in STORE the trees of the snapshot obtained by applying
+     *  CHANGES to the one whose root tree is ROOT (null for an empty
+     *  snapshot), and return the new root id.  CHANGES maps paths to new
+     *  blob ids, or to null for removed files.  Only the trees on the
+     *  paths of CHANGES are rewritten; directories left empty vanish. */
+    static String update(ObjectStore store, String root,
+                         SortedMap<String, String> changes) {
+        String result = updateDir(store, root, changes);
+        return result == null ? write(store, new Tree()) : result;
+    }
+
+    /** As for update, but returns null for an empty result. */
+    private static String updateDir(ObjectStore store, String id,
+                                    SortedMap<String, String> changes) {
+        Tree tree = read(store, id);
+        TreeMap<String, TreeMap<String, String>> byDir = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    tree.files.remove(path);
+                } else {
+                    tree.files.put(path, change.getValue());
+                }
+            } else {
+                byDir.computeIfAbsent(path.substring(0, slash),
+                                      k -> new TreeMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> sub
+                 : byDir.entrySet()) {
+            String name = sub.getKey();
+            String newId = updateDir(store, tree.dirs.get(name),
+                                     sub.getValue());
+            if (newId == null) {
+                tree.dirs.remove(name);
+            } else {
+                tree.dirs.put(name, newId);
+            }
+        }
+        return tree.isEmpty() ? null : write(store, tree);
+    }
+
+    /** Return the blob id of PATH in the snapshot with root tree ROOT in
+     *  STORE, or null if it has no such file. */
+    static String lookup(ObjectStore store, String root, String path) {
+        return lookup(store, root, path, new HashMap<>());
+    }
+
+    /** As for lookup, but takes the trees already read from CACHE, by
+     *  id, and adds the ones it reads, so that looking up many paths
+     *  reads each tree once. */
+    static String lookup(ObjectStore store, String root, String path,
+                         Map<String, Tree> cache) {
+        String id = root;
+        int start = 0;
+        while (id != null) {
+            Tree tree = cache.computeIfAbsent(id, k -> read(store, k));
+            int slash = path.indexOf('/', start);
+            if (slash < 0) {
+                return tree.files.get(path.substring(start));
+            }
+            id = tree.dirs.get(path.substring(start, slash));
+            start = slash + 1;
+        }
+        return null;
+    }
+
+    /** Add the blob ids of all files under tree ID of STORE to INTO, by
+     *  path, prefixing each path with PREFIX. */
+    static void flatten(ObjectStore store, String id, String prefix,
+                        Map<String, String> into) {
+        Tree tree = read(store, id);
+        for (Map.Entry<String, String> e : tree.files.entrySet()) {
+            into.put(prefix + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String> e : tree.dirs.entrySet()) {
+            flatten(store, e.getValue(), prefix + e.getKey() + "/", into);
+        }
+    }
+
+    /** Call ACTION on the path and blob id of every file under tree ID
+     *  of STORE, skipping the subtrees whose ids are in SEEN, and add the
+     *  ids of the trees visited to SEEN. */
+    static void walk(ObjectStore store, String id, Set<String> seen,
+                     BiConsumer<String, String> action) {
+        walk(store, id, "", seen, action);
+    }
+
+    /** As for walk, prefixing each path with PREFIX. */
+    private static void walk(ObjectStore store, String id, String prefix,
+                             Set<String> seen,
+                             BiConsumer<String, String> action) {
+        if (!seen.add(id)) {
+            return;
+        }
+        Tree tree = read(store, id);
+        for (Map.Entry<String, String> e : tree.files.entrySet()) {
+            action.accept(prefix + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String> e : tree.dirs.entrySet()) {
+            walk(store, e.getValue(), prefix + e.getKey() + "/", seen,
+                 action);
+        }
+    }
+
+    /** Add to INTO every path whose blob differs between the snapshots
+     *  with root trees A and B (either may be null) in STORE, mapped to
+     *  its pair of blob ids, null where the file is absent.  Subtrees
+     *  with equal ids are skipped without being read. */
+    static void diff(ObjectStore store, String a, String b,
+                     Map<String, String[]> into) {
+        diff(store, a, b, "", into);
+    }
+
+    /** As for diff, prefixing each path with PREFIX. */
+    private static void diff(ObjectStore store, String a, String b,
+                             String prefix, Map<String, String[]> into) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        Tree ta = read(store, a), tb = read(store, b);
+        TreeSet<String> names = new TreeSet<>(ta.files.keySet());
+        names.addAll(tb.files.keySet());
+        for (String name : names) {
+            String x = ta.files.get(name), y = tb.files.get(name);
+            if (!Objects.equals(x, y)) {
+                into.put(prefix + name, new String[] {x, y});
+            }
+        }
+        names = new TreeSet<>(ta.dirs.keySet());
+        names.addAll(tb.dirs.keySet());
+        for (String name : names) {
+            diff(store, ta.dirs.get(name), tb.dirs.get(name),
+                 prefix + name + "/", into);
+        }
+    }
+}
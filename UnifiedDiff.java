@@ -0,0 +1,118 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** The differences between two versions of a file, in the unified format
+ *  of "gitlet diff".  A file section starts with a "diff --git" line and
+ *  the "---" and "+++" lines naming the two versions, a missing version
+ *  being /dev/null.  Each edit of Diff.diffs() then gives one hunk with
+ *  no context lines: "@@ -L1,N1 +L2,N2 @@", where Ni is the number of
+ *  lines removed or added and Li the line number of the first of them,
+ *  or of the line before them if there are none; ",Ni" is left out when
+ *  Ni is 1.  A last line without a newline is followed by the line
+ *  "\ No newline at end of file".  Files containing a NUL byte within
+ *  their first BINARY_PROBE bytes are binary, and are only reported as
+ *  differing.  Lines are compared and copied as bytes, whatever the
+ *  encoding of the file.
+ *  @author Hanqi Xiong
+ */
+class UnifiedDiff {
+
+    /** Number of leading bytes searched for a NUL byte. */
+    static final int BINARY_PROBE = 8000;
+
+    /** Name of a missing version. */
+    private static final String NONE = "/dev/null";
+
+    /** Line following a last line that has no newline. */
+    private static final String NO_NEWLINE =
+        "\\ No newline at end of file\n";
+
+    /** Return the section of the diff of the file at PATH, whose old and
+     *  new contents are BEFORE and AFTER, null if missing. */
+    static byte[] format(String path, byte[] before, byte[] after) {
+        String name = new String(path.getBytes(StandardCharsets.UTF_8),
+                                 StandardCharsets.ISO_8859_1);
+        String a = before == null ? NONE : "a/" + name;
+        String b = after == null ? NONE : "b/" + name;
+        StringBuilder out = new StringBuilder();
+        out.append("diff --git ").append(a).append(' ').append(b).append('\n');
+        if (isBinary(before) || isBinary(after)) {
+            out.append("Binary files ").append(a).append(" and ").append(b)
+                .append(" differ\n");
+            return out.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+        out.append("--- ").append(a).append('\n');
+        out.append("+++ ").append(b).append('\n');
+        List<String> lines1 = lines(before), lines2 = lines(after);
+        Diff diff = new Diff();
+        diff.setSequences(lines1, lines2);
+        int[] edits = diff.diffs();
+        for (int k = 0; k < edits.length; k += 4) {
+            out.append("@@ -").append(range(edits[k], edits[k + 1]))
+                .append(" +").append(range(edits[k + 2], edits[k + 3]))
+                .append(" @@\n");
+            for (int i = 0; i < edits[k + 1]; i += 1) {
+                line(out, '-', lines1.get(edits[k] + i));
+            }
+            for (int i = 0; i < edits[k + 3]; i += 1) {
+                line(out, '+', lines2.get(edits[k + 2] + i));
+            }
+        }
+        return out.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Append LINE to OUT, marked by SIGN. */
+    private static void line(StringBuilder out, char sign, String line) {
+        out.append(sign).append(line);
+        if (!line.endsWith("\n")) {
+            out.append('\n').append(NO_NEWLINE);
+        }
+    }
+
+    /** Return the hunk-header range of N lines starting at 0-based line
+     *  START. */
+    private static String range(int start, int n) {
+        if (n == 0) {
+            return start + ",0";
+        }
+        return n == 1 ? Integer.toString(start + 1) : (start + 1) + "," + n;
+    }
+
+    /** Return true iff CONTENTS are those of a binary file. */
+    static boolean isBinary(byte[] contents) {
+        if (contents == null) {
+            return false;
+        }
+        for (int i = 0; i < Math.min(contents.length, BINARY_PROBE); i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the lines of CONTENTS, each with its newline, which only
+     *  the last line may lack; none if CONTENTS is null.  They are read
+     *  as ISO-8859-1, one character per byte, so that writing them back
+     *  the same way restores CONTENTS in any encoding. */
+    static List<String> lines(byte[] contents) {
+        List<String> result = new ArrayList<>();
+        if (contents == null) {
+            return result;
+        }
+        String text = new String(contents, StandardCharsets.ISO_8859_1);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start) + 1;
+            if (end == 0) {
+                end = text.length();
+            }
+            result.add(text.substring(start, end));
+            start = end;
+        }
+        return result;
+    }
+}
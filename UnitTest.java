@@ -1,6 +1,41 @@
 package gitlet;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import ucb.junit.textui;
+import org.junit.After;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -15,11 +50,1139 @@ public class UnitTest {
         System.exit(textui.runClasses(UnitTest.class));
     }
 
-    /** A dummy test to avoid complaint. */
+    /** Directories made by tempDir during the current test. */
+    private final List<File> tempDirs = new ArrayList<>();
+
+    /** Return a new empty directory, deleted when the test ends. */
+    private File tempDir() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        tempDirs.add(dir);
+        return dir;
+    }
+
+    /** Delete the directories made by tempDir and all they hold. */
+    @After
+    public void deleteTempDirs() throws IOException {
+        for (File dir : tempDirs) {
+            List<Path> paths;
+            try (Stream<Path> walk = Files.walk(dir.toPath())) {
+                paths = walk.collect(Collectors.toList());
+            }
+            Collections.reverse(paths);
+            for (Path path : paths) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /** Deltas reproduce their target from their base. */
     @Test
-    public void placeholderTest() {
+    public void deltaRoundTripTest() {
+        byte[] base = new byte[4096];
+        for (int i = 0; i < base.length; i += 1) {
+            base[i] = (byte) (i * 7 % 13);
+        }
+        byte[] target = Arrays.copyOf(base, 5000);
+        target[100] = 42;
+        target[4500] = 17;
+        byte[] delta = Delta.create(base, target);
+        assertTrue(delta.length < target.length / 2);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        assertArrayEquals(new byte[0],
+                          Delta.apply(base, Delta.create(base, new byte[0])));
     }
 
-}
+    /** Loose objects live under the first two digits of their id, and
+     *  objects written before sharding are found until moved there. */
+    @Test
+    public void shardedObjectsTest() throws IOException {
+        File dir = tempDir();
+        ObjectStore store = new ObjectStore(dir);
+        byte[] one = "one".getBytes(), two = "two".getBytes();
+        String id1 = Utils.sha1(one), id2 = Utils.sha1(two);
+        store.write(id1, one);
+        File sharded = new File(
+            new File(dir, id1.substring(0, 2)), id1.substring(2));
+        assertTrue(sharded.isFile());
+        assertEquals(sharded, store.file(id1));
+        File flat = new File(dir, id2);
+        ObjectCodec.write(flat, two);
+        assertEquals(flat, store.file(id2));
+        assertArrayEquals(two, store.read(id2));
+        assertEquals(new TreeSet<>(List.of(id1, id2)),
+                     new TreeSet<>(store.ids()));
+        assertEquals(List.of(id2), store.resolve(id2.substring(0, 5)));
+        assertEquals(1, store.shard());
+        assertFalse(flat.exists());
+        assertTrue(store.file(id2).getPath().endsWith(
+            id2.substring(0, 2) + File.separator + id2.substring(2)));
+        assertArrayEquals(two, store.read(id2));
+        assertEquals(0, store.shard());
+    }
+
+    /** Commits survive their binary encoding, and their id is the hash
+     *  of that encoding. */
+    @Test
+    public void commitEncodingTest() {
+        Commit commit = new Commit("message", Utils.sha1("p"),
+                                   Utils.sha1("t"), true, Utils.sha1("q"));
+        assertEquals(Utils.sha1(commit.encode()), commit.getSha1());
+        Commit copy = Commit.decode(commit.getSha1(), commit.encode());
+        assertEquals(commit.getSha1(), copy.getSha1());
+        assertEquals(commit.getTimestamp(), copy.getTimestamp());
+        assertEquals(Utils.sha1("t"), copy.getTree());
+        assertEquals(commit.getParent2(), copy.getParent2());
+        assertTrue(copy.ifMerged());
+        assertArrayEquals(commit.encode(), copy.encode());
+    }
+
+    /** Updating a tree rewrites only the directories on the changed
+     *  paths, and diffs report exactly the changed files. */
+    @Test
+    public void treeSharingTest() throws IOException {
+        File dir = tempDir();
+        ObjectStore store = new ObjectStore(dir);
+        TreeMap<String, String> blobs = new TreeMap<>();
+        blobs.put("a", Utils.sha1("a"));
+        blobs.put("d/x", Utils.sha1("x"));
+        blobs.put("e/f/y", Utils.sha1("y"));
+        String root = Tree.build(store, blobs);
+        int before = store.ids().size();
+        TreeMap<String, String> changes = new TreeMap<>();
+        changes.put("d/x", Utils.sha1("x2"));
+        changes.put("a", null);
+        String next = Tree.update(store, root, changes);
+        assertEquals(before + 2, store.ids().size());
+        assertEquals(Utils.sha1("x2"), Tree.lookup(store, next, "d/x"));
+        assertNull(Tree.lookup(store, next, "a"));
+        HashMap<String, Tree> cache = new HashMap<>();
+        assertEquals(Utils.sha1("y"),
+                     Tree.lookup(store, next, "e/f/y", cache));
+        assertNull(Tree.lookup(store, next, "e/f/z", cache));
+        assertEquals(3, cache.size());
+        TreeMap<String, String[]> diff = new TreeMap<>();
+        Tree.diff(store, root, next, diff);
+        assertEquals(Set.of("a", "d/x"), diff.keySet());
+        blobs.put("d/x", Utils.sha1("x2"));
+        blobs.remove("a");
+        TreeMap<String, String> flat = new TreeMap<>();
+        Tree.flatten(store, next, "", flat);
+        assertEquals(blobs, flat);
+        assertEquals(next, Tree.build(store, blobs));
+    }
+
+    /** Files hash alike whether read through a buffer or mapped, and
+     *  ids convert between their raw and hexadecimal forms. */
+    @Test
+    public void fileHashTest() throws IOException {
+        File dir = tempDir();
+        for (long size : new long[] {0, 100, Hashing.MAP_THRESHOLD + 7}) {
+            byte[] data = new byte[(int) size];
+            for (int i = 0; i < data.length; i += 1) {
+                data[i] = (byte) (i * 31 % 251);
+            }
+            File f = new File(dir, "f" + size);
+            Utils.writeContents(f, data);
+            assertEquals(Utils.sha1(data), Hashing.file(f));
+        }
+        String id = Utils.sha1("x");
+        assertEquals(Hashing.RAW_LENGTH, Hashing.unhex(id).length);
+        assertEquals(id, Hashing.hex(Hashing.unhex(id)));
+        assertEquals("11f6ad8ec52a2984abaafd7c3b516503785c2072", id);
+    }
+
+    /** Ingested files are stored under the hash of their contents,
+     *  once. */
+    @Test
+    public void ingestTest() throws IOException {
+        File dir = tempDir();
+        ObjectStore store = new ObjectStore(new File(dir, "objects"));
+        byte[] data = new byte[200000];
+        for (int i = 0; i < data.length; i += 1) {
+            data[i] = (byte) (i % 7);
+        }
+        File f = new File(dir, "f");
+        Utils.writeContents(f, data);
+        String id = store.ingest(f);
+        assertEquals(Utils.sha1(data), id);
+        assertArrayEquals(data, store.read(id));
+        assertEquals(id, store.ingest(f));
+        assertEquals(List.of(id), store.ids());
+    }
+
+    /** Abbreviated ids resolve through the index and its log, before
+     *  and after the log is folded into the index. */
+    @Test
+    public void commitIndexTest() throws IOException {
+        File dir = tempDir();
+        CommitIndex index = new CommitIndex(new File(dir, "index"));
+        TreeSet<String> ids = new TreeSet<>();
+        for (int i = 0; i < 10; i += 1) {
+            ids.add(Utils.sha1("old" + i));
+        }
+        index.rebuild(ids);
+        for (int i = 0; i < CommitIndex.LOG_LIMIT - 1; i += 1) {
+            String id = Utils.sha1("new" + i);
+            ids.add(id);
+            index.add(id);
+        }
+        File log = new File(dir, "index.log");
+        assertTrue(log.isFile());
+        String some = Utils.sha1("new7");
+        assertEquals(List.of(some),
+                     index.resolve(some.substring(0, 10)));
+        assertEquals(ids.size(), index.size());
+        index.add(Utils.sha1("last"));
+        ids.add(Utils.sha1("last"));
+        assertFalse(log.exists());
+        assertEquals(ids.size(), index.size());
+        List<String> all = new ArrayList<>();
+        index.iterator().forEachRemaining(all::add);
+        assertEquals(new ArrayList<>(ids), all);
+        assertEquals(List.of(some), index.resolve(some));
+        assertEquals(List.of(), index.resolve("xyz"));
+    }
+
+    /** Commits appended to the message log are found by indexes that
+     *  read only what was appended, and a record cut short is skipped
+     *  until it is complete. */
+    @Test
+    public void messageIndexTest() throws IOException {
+        File dir = tempDir();
+        File log = new File(dir, "messages");
+        MessageIndex index = new MessageIndex(log);
+        index.update();
+        assertEquals(0, index.size());
+        String a = Utils.sha1("a"), b = Utils.sha1("b");
+        MessageIndex.append(log, a, "Fix the parser");
+        index.update();
+        assertEquals(Set.of(a), index.find("Fix the parser"));
+        MessageIndex.append(log, b, "fix \u00e9t\u00e9 bugs");
+        byte[] full = Utils.readContents(log);
+        Utils.writeContents(log, Arrays.copyOf(full, full.length - 3));
+        index.update();
+        assertEquals(1, index.size());
+        Utils.writeContents(log, full);
+        index.update();
+        assertEquals(2, index.size());
+        assertEquals(Set.of(a, b), index.findSubstring("FIX"));
+        assertEquals(Set.of(b), index.findRegex("t\u00e9 b"));
+        MessageIndex fresh = new MessageIndex(log);
+        fresh.add(a, "rewritten");
+        fresh.write();
+        index.update();
+        assertEquals(1, index.size());
+        assertEquals(Set.of(a), index.find("rewritten"));
+    }
+
+    /** Diff finds common subsequences as long as a dynamic-programming
+     *  table does, and edits that turn one sequence into the other. */
+    @Test
+    public void diffTest() {
+        Random random = new Random(17);
+        Diff diff = new Diff();
+        for (int trial = 0; trial < 500; trial += 1) {
+            List<String> a = new ArrayList<>();
+            List<String> b = new ArrayList<>();
+            for (int i = random.nextInt(30); i > 0; i -= 1) {
+                a.add("" + random.nextInt(4));
+            }
+            for (int i = random.nextInt(30); i > 0; i -= 1) {
+                b.add("" + random.nextInt(4));
+            }
+            int[][] table = new int[a.size() + 1][b.size() + 1];
+            for (int i = 1; i <= a.size(); i += 1) {
+                for (int j = 1; j <= b.size(); j += 1) {
+                    table[i][j] = a.get(i - 1).equals(b.get(j - 1))
+                        ? table[i - 1][j - 1] + 1
+                        : Math.max(table[i - 1][j], table[i][j - 1]);
+                }
+            }
+            diff.setSequences(a, b);
+            assertEquals(table[a.size()][b.size()], diff.lls());
+            int k1 = a.size() / 2, k2 = b.size() / 3;
+            assertEquals(table[k1][k2], diff.lls(k1, k2));
+            int[] common = diff.commonSubsequence();
+            for (int k = 0; k < common.length; k += 3) {
+                for (int i = 0; i < common[k + 2]; i += 1) {
+                    assertEquals(a.get(common[k] + i),
+                                 b.get(common[k + 1] + i));
+                }
+            }
+            List<String> edited = new ArrayList<>(a);
+            int[] edits = diff.diffs();
+            for (int k = edits.length - 4; k >= 0; k -= 4) {
+                edited.subList(edits[k], edits[k] + edits[k + 1]).clear();
+                edited.addAll(edits[k], b.subList(edits[k + 2],
+                                                  edits[k + 2]
+                                                  + edits[k + 3]));
+            }
+            assertEquals(b, edited);
+        }
+    }
+
+    /** Diffs of 100k-line sequences with few differences are fast. */
+    @Test(timeout = 2000)
+    public void largeDiffTest() {
+        List<String> a = new ArrayList<>();
+        for (int i = 0; i < 100000; i += 1) {
+            a.add("line " + i);
+        }
+        List<String> b = new ArrayList<>(a);
+        for (int i = 10; i < b.size(); i += 1000) {
+            b.set(i, "changed " + i);
+        }
+        Diff diff = new Diff();
+        diff.setSequences(a, b);
+        assertEquals(100, diff.diffs().length / 4);
+        assertEquals(a.size() - 100, diff.lls());
+    }
+
+    /** Repositories opened on any directory return their results, and
+     *  raise typed errors, without printing. */
+    @Test
+    public void repositoryTest() throws Exception {
+        File dir = tempDir();
+        Repository repo = Repository.init(dir);
+        Utils.writeContents(new File(dir, "f.txt"), "one\n");
+        repo.add("f.txt");
+        assertEquals(List.of("f.txt"), repo.status().staged());
+        String first = repo.commit("first");
+        assertEquals(first, repo.head());
+        repo.branch("other");
+        Utils.writeContents(new File(dir, "f.txt"), "two\n");
+        assertEquals("modified", repo.status().modified().get("f.txt"));
+        repo.add("f.txt");
+        repo.commit("second");
+        assertEquals(2, repo.log(2).size());
+        assertEquals("first", repo.log(3).get(1).getMessage());
+        assertArrayEquals("one\n".getBytes(),
+                          repo.read(first.substring(0, 8), "f.txt"));
+        assertEquals(Set.of(first), repo.find("first"));
+        try {
+            repo.checkout("nope");
+            fail();
+        } catch (GitletException.NotFound excp) {
+            assertEquals("No such branch exists", excp.getMessage());
+        }
+        try {
+            repo.commit("nothing");
+            fail();
+        } catch (GitletException.Invalid excp) {
+            assertEquals("No changes added to the commit", excp.getMessage());
+        }
+        assertEquals(Repository.MergeResult.ANCESTOR, repo.merge("other"));
+        Repository again = Repository.open(dir);
+        List<Thread> readers = new ArrayList<>();
+        AtomicInteger reads = new AtomicInteger();
+        for (int i = 0; i < 4; i += 1) {
+            Thread reader = new Thread(() -> {
+                for (int k = 0; k < 50; k += 1) {
+                    if (again.log(10).size() == 3
+                        && again.branches().equals(
+                            List.of("master", "other"))) {
+                        reads.incrementAndGet();
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(200, reads.get());
+        Set<String> found = repo.find("first");
+        Utils.writeContents(new File(dir, "f.txt"), "three\n");
+        repo.add("f.txt");
+        String third = repo.commit("first");
+        assertEquals(Set.of(first), found);
+        assertEquals(Set.of(first, third), repo.find("first"));
+        try {
+            repo.getCommit(first).getBlobs().remove("f.txt");
+            fail();
+        } catch (UnsupportedOperationException excp) {
+            assertEquals(Set.of("f.txt"), repo.files(first).keySet());
+        }
+    }
+
+    /** Readers sharing a repository see commits made by another process
+     *  once the indices are brought up to date, which is done alone. */
+    @Test
+    public void concurrentReadersTest() throws Exception {
+        File dir = tempDir();
+        Repository repo = Repository.init(dir);
+        Utils.writeContents(new File(dir, "f"), "one\n");
+        repo.add("f");
+        repo.commit("first");
+        assertEquals(2, repo.log(10).size());
+        CommitTree other = new CommitTree(dir);
+        for (int i = 0; i < 20; i += 1) {
+            Utils.writeContents(new File(dir, "f"), i + "\n");
+            other.add("f");
+            other.commit("commit " + i, false, null);
+        }
+        String head = other.readHead();
+        Utils.join(dir, ".gitlet", "commit-index").delete();
+        List<Thread> readers = new ArrayList<>();
+        Set<Throwable> errors = ConcurrentHashMap.newKeySet();
+        AtomicInteger reads = new AtomicInteger();
+        for (int i = 0; i < 4; i += 1) {
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int k = 0; k < 50; k += 1) {
+                        if (repo.log(30).size() == 22
+                            && repo.find("commit 7").size() == 1
+                            && repo.resolve(head.substring(0, 7))
+                                .equals(head)
+                            && repo.getCommit(head).getMessage()
+                                .equals("commit 19")) {
+                            reads.incrementAndGet();
+                        }
+                    }
+                } catch (RuntimeException excp) {
+                    errors.add(excp);
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(Set.of(), errors);
+        assertEquals(200, reads.get());
+    }
+
+    /** With the watcher running, a file changed before a command that
+     *  looks at other files only is still seen as changed by the
+     *  commands after it. */
+    @Test(timeout = 10000)
+    public void watchJournalTest() throws Exception {
+        File dir = tempDir();
+        Repository repo = Repository.init(dir);
+        File f = new File(dir, "f"), h = new File(dir, "h");
+        Utils.writeContents(f, "1\n");
+        Utils.writeContents(h, "1\n");
+        repo.add("f", "h");
+        repo.commit("both");
+        Thread watcher = new Thread(new CommitTree(dir)::watch);
+        watcher.start();
+        File journal = Utils.join(dir, ".gitlet", "watch", "journal");
+        while (!journal.isFile()) {
+            Thread.sleep(10);
+        }
+        try {
+            assertTrue(repo.status().modified().isEmpty());
+            Utils.writeContents(f, "2\n");
+            Utils.writeContents(h, "2\n");
+            new File(dir, "d").mkdir();
+            Utils.writeContents(Utils.join(dir, "d", "x"), "x\n");
+            repo.add("h");
+            Repository.Status status = repo.status();
+            assertEquals("modified", status.modified().get("f"));
+            assertEquals(List.of("d/x"), status.untracked());
+            repo.add("f");
+            assertEquals(List.of("f", "h"), repo.status().staged());
+        } finally {
+            watcher.interrupt();
+            watcher.join();
+        }
+    }
+
+    /** Commands forwarded to a daemon run in the daemon on the
+     *  repository it serves, and see a repack done by another
+     *  process. */
+    @Test(timeout = 20000)
+    public void daemonTest() throws Exception {
+        File dir = tempDir();
+        new CommitTree(dir).init();
+        Utils.writeContents(new File(dir, "f"), "one\n");
+        assertNull(Daemon.forward(dir, "status"));
+        Thread daemon = new Thread(() -> {
+            try {
+                Daemon.serve(new CommitTree(dir));
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        });
+        daemon.start();
+        while (Daemon.forward(dir, "daemon", "ping") == null) {
+            Thread.sleep(10);
+        }
+        assertTrue(Utils.join(dir, ".gitlet", "daemon.sock").exists());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertEquals(0, (int) Daemon.forward(dir, out, err, "add", "f"));
+        assertEquals(0, (int) Daemon.forward(dir, out, err,
+                                             "commit", "one"));
+        new CommitTree(dir).repack();
+        Utils.writeContents(new File(dir, "f"), "two\n");
+        assertEquals(0, (int) Daemon.forward(dir, out, err,
+                                             "checkout", "--", "f"));
+        assertEquals("one\n",
+                     Utils.readContentsAsString(new File(dir, "f")));
+        assertEquals(0, (int) Daemon.forward(dir, out, err,
+                                             "find", "one"));
+        assertEquals("", err.toString());
+        assertEquals(new CommitTree(dir).readHead() + "\n", out.toString());
+        assertEquals(0, (int) Daemon.forward(dir, "daemon", "stop"));
+        daemon.join();
+        assertFalse(Utils.join(dir, ".gitlet", "daemon.sock").exists());
+    }
+
+    /** Commands run without the daemon only when no daemon accepts the
+     *  connection; a connection broken after that fails the command. */
+    @Test(timeout = 10000)
+    public void daemonConnectionTest() throws Exception {
+        File dir = tempDir();
+        new CommitTree(dir).init();
+        Path socket = Daemon.socket(dir);
+        Files.createFile(socket);
+        assertNull(Daemon.forward(dir, "status"));
+        Files.delete(socket);
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Thread daemon = new Thread(() -> {
+                try (SocketChannel ch = server.accept()) {
+                    new DataInputStream(Channels.newInputStream(ch))
+                        .readInt();
+                } catch (IOException excp) {
+                    throw new UncheckedIOException(excp);
+                }
+            });
+            daemon.start();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            assertEquals(1, (int) Daemon.forward(dir, out, err,
+                                                 "commit", "once"));
+            daemon.join();
+            assertEquals("", out.toString());
+            assertEquals("gitlet: lost the connection to the daemon.\n",
+                         err.toString());
+        }
+    }
+
+    /** Script lines split into words as a shell would split them. */
+    @Test
+    public void batchSplitTest() {
+        assertArrayEquals(new String[] {"commit", "two words"},
+                          Batch.split("  commit \"two words\"  "));
+        assertArrayEquals(new String[] {"find", "a \\\"b\" c"},
+                          Batch.split("find 'a \\\"b\" c'"));
+        assertArrayEquals(new String[] {"add", "a b", "c'd"},
+                          Batch.split("add a\\ b c\\'d"));
+        assertArrayEquals(new String[] {"commit", "open quote"},
+                          Batch.split("commit 'open quote"));
+        assertArrayEquals(new String[] {"add", ""}, Batch.split("add ''"));
+        assertArrayEquals(new String[0], Batch.split(" \t "));
+    }
+
+    /** A script writes its branches and state at checkpoints and at its
+     *  end, and stops at a command that cannot run in a batch. */
+    @Test
+    public void batchDeferredWritesTest() throws IOException {
+        File dir = tempDir();
+        new CommitTree(dir).init();
+        Utils.writeContents(new File(dir, "f"), "one\n");
+        String script = "add f\n# a comment\n\ncommit 'first one'\n"
+            + "branch b\ncheckpoint\nbranch c\nbatch\nbranch d\n";
+        List<String> lines = new ArrayList<>();
+        BufferedReader in = new BufferedReader(new StringReader(script)) {
+            @Override
+            public String readLine() throws IOException {
+                String line = super.readLine();
+                CommitTree disk = new CommitTree(dir);
+                if ("checkpoint".equals(line)) {
+                    assertNull(disk.readRef("b"));
+                } else if ("branch c".equals(line)) {
+                    assertEquals(disk.readHead(), disk.readRef("b"));
+                } else if ("batch".equals(line)) {
+                    assertNull(disk.readRef("c"));
+                }
+                lines.add(line);
+                return line;
+            }
+        };
+        PrintStream err = System.err;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errors, true));
+        int code;
+        try {
+            code = Batch.run(new CommitTree(dir), in);
+        } finally {
+            System.setErr(err);
+        }
+        assertEquals(1, code);
+        assertEquals("Cannot run batch in a batch.",
+                     errors.toString().trim());
+        assertFalse(lines.contains("branch d"));
+        CommitTree disk = new CommitTree(dir);
+        assertEquals(disk.readHead(), disk.readRef("c"));
+        assertNull(disk.readRef("d"));
+        assertEquals("first one", disk.getCommit(disk.readHead())
+                     .getMessage());
+    }
+
+    /** A merge in which every change conflicts reports the conflict and
+     *  leaves the markers, having nothing to commit. */
+    @Test
+    public void conflictedMergeTest() throws IOException {
+        File dir = tempDir();
+        File f = new File(dir, "f");
+        Repository repo = Repository.init(dir);
+        Utils.writeContents(f, "a\nb\n");
+        repo.add("f");
+        repo.commit("one");
+        repo.branch("other");
+        Utils.writeContents(f, "a\nX\n");
+        repo.add("f");
+        String two = repo.commit("two");
+        repo.checkout("other");
+        Utils.writeContents(f, "a\nY\n");
+        repo.add("f");
+        repo.commit("three");
+        repo.checkout("master");
+        assertEquals(Repository.MergeResult.CONFLICTED, repo.merge("other"));
+        assertEquals(two, repo.head());
+        assertEquals("a\n<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\n",
+                     Utils.readContentsAsString(f));
+    }
+
+    /** Packed branches are found by name, and replaced whole. */
+    @Test
+    public void packedRefsTest() throws IOException {
+        File dir = tempDir();
+        PackedRefs refs = new PackedRefs(new File(dir, "packed"));
+        assertNull(refs.get("master"));
+        TreeMap<String, String> names = new TreeMap<>();
+        for (int i = 0; i < 1000; i += 1) {
+            names.put("b" + i, Utils.sha1("" + i));
+        }
+        names.put("\u00e9t\u00e9", Utils.sha1("e"));
+        refs.write(names);
+        for (String name : names.keySet()) {
+            assertEquals(names.get(name), refs.get(name));
+        }
+        assertNull(refs.get("b"));
+        assertNull(refs.get("b1000"));
+        assertEquals(names, refs.all());
+        names.remove("b5");
+        refs.write(names);
+        assertNull(refs.get("b5"));
+        assertEquals(names, refs.all());
+    }
+
+    /** Return the merge of the lines of OURS and THEIRS, derived from
+     *  BASE, followed by "!" if it has conflicts. */
+    private static String merged(String base, String ours, String theirs)
+        throws IOException {
+        StringWriter out = new StringWriter();
+        boolean conflicted = ThreeWayMerge.merge(
+            UnifiedDiff.lines(base.getBytes(StandardCharsets.ISO_8859_1)),
+            UnifiedDiff.lines(ours.getBytes(StandardCharsets.ISO_8859_1)),
+            UnifiedDiff.lines(theirs.getBytes(StandardCharsets.ISO_8859_1)),
+            out);
+        return out + (conflicted ? "!" : "");
+    }
+
+    /** Three-way merges take changes made on one side only, and mark
+     *  only the lines changed differently on both sides.  A last line
+     *  without a newline stays so, except within a conflict. */
+    @Test
+    public void threeWayMergeTest() throws IOException {
+        assertEquals("A\nb\nc\nD\ne\n",
+                     merged("a\nb\nc\nd\n", "A\nb\nc\nd\n",
+                            "a\nb\nc\nD\ne\n"));
+        assertEquals("a\n<<<<<<< HEAD\nx\n=======\ny\n>>>>>>>\nc\nd\n!",
+                     merged("a\nb\nc\nd\n", "a\nx\nc\nd\n",
+                            "a\ny\nc\nd\n"));
+        assertEquals("A\nb\nc", merged("a\nb\nc", "A\nb\nc", "a\nb\nc"));
+        assertEquals("A\nb\nC", merged("a\nb\nc", "A\nb\nc", "a\nb\nC"));
+        assertEquals("a\nb\nc\n", merged("a\nb\nc", "a\nb\nc",
+                                         "a\nb\nc\n"));
+        assertEquals("a\n<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\n!",
+                     merged("a\nb", "a\nX", "a\nY\n"));
+    }
+
+    /** Diffs and merges carry bytes that are not UTF-8 through
+     *  unchanged, and mark a last line without a newline. */
+    @Test
+    public void bytesMergeTest() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(("diff --git a/\u00e9 b/\u00e9\n--- a/\u00e9\n"
+                        + "+++ b/\u00e9\n@@ -2 +2 @@\n")
+                       .getBytes(StandardCharsets.UTF_8));
+        expected.write("-b\u00e9\n+B\u00e9\n"
+                       .getBytes(StandardCharsets.ISO_8859_1));
+        assertArrayEquals(expected.toByteArray(), UnifiedDiff.format(
+            "\u00e9", "a\nb\u00e9\nc".getBytes(StandardCharsets.ISO_8859_1),
+            "a\nB\u00e9\nc".getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals("diff --git a/f b/f\n--- a/f\n+++ b/f\n@@ -1 +1 @@\n"
+                     + "-a\n\\ No newline at end of file\n+a\n",
+                     new String(UnifiedDiff.format("f", "a".getBytes(),
+                                                   "a\n".getBytes())));
+
+        File dir = tempDir();
+        File f = new File(dir, "f");
+        gitlet(dir, null, "init");
+        Utils.writeContents(f, "a\nb\u00e9\nc\nd"
+                            .getBytes(StandardCharsets.ISO_8859_1));
+        gitlet(dir, "add f\ncommit base\nbranch other\n", "batch");
+        Utils.writeContents(f, "a\nB\u00e9\nc\nd"
+                            .getBytes(StandardCharsets.ISO_8859_1));
+        gitlet(dir, "add f\ncommit mine\ncheckout other\n", "batch");
+        Utils.writeContents(f, "a\nb\u00e9\nc\nd\u00e9"
+                            .getBytes(StandardCharsets.ISO_8859_1));
+        gitlet(dir, "add f\ncommit theirs\ncheckout master\n", "batch");
+        assertEquals("", gitlet(dir, null, "merge", "other"));
+        byte[] result = "a\nB\u00e9\nc\nd\u00e9"
+            .getBytes(StandardCharsets.ISO_8859_1);
+        assertArrayEquals(result, Utils.readContents(f));
+        Utils.writeContents(f, "changed\n");
+        gitlet(dir, null, "checkout", "--", "f");
+        assertArrayEquals(result, Utils.readContents(f));
+    }
+
+    /** An in-memory commit history for merge-base tests. */
+    private static class ArrayGraph implements MergeBase.Graph {
+        /** Parents and generations of the commits. */
+        private final int[] p1, p2, gen;
+        /** Number of commits. */
+        private int n;
+
+        /** A history with room for CAP commits. */
+        ArrayGraph(int cap) {
+            p1 = new int[cap];
+            p2 = new int[cap];
+            gen = new int[cap];
+        }
+
+        /** Add a commit with parents A and B and return its position. */
+        int add(int a, int b) {
+            p1[n] = a;
+            p2[n] = b;
+            gen[n] = 1 + Math.max(a < 0 ? 0 : gen[a], b < 0 ? 0 : gen[b]);
+            return n++;
+        }
+
+        @Override
+        public int size() {
+            return n;
+        }
 
+        @Override
+        public int parent(int k) {
+            return p1[k];
+        }
+
+        @Override
+        public int parent2(int k) {
+            return p2[k];
+        }
+
+        @Override
+        public int generation(int k) {
+            return gen[k];
+        }
+    }
+
+    /** Criss-cross merges have two best common ancestors. */
+    @Test
+    public void crissCrossMergeBaseTest() {
+        ArrayGraph g = new ArrayGraph(8);
+        int root = g.add(-1, -1);
+        int a = g.add(root, -1), b = g.add(root, -1);
+        int c = g.add(a, b), d = g.add(b, a);
+        int[] bases = MergeBase.find(g, c, d);
+        Arrays.sort(bases);
+        assertArrayEquals(new int[] {a, b}, bases);
+        assertArrayEquals(new int[] {a}, MergeBase.find(g, a, c));
+    }
+
+    /** Merge bases on a 200k-commit history take well under a second. */
+    @Test(timeout = 2000)
+    public void largeHistoryMergeBaseTest() {
+        ArrayGraph g = new ArrayGraph(200001);
+        int fork = g.add(-1, -1);
+        for (int i = 0; i < 100000; i += 1) {
+            fork = g.add(fork, -1);
+        }
+        int left = fork, right = fork;
+        for (int i = 0; i < 50000; i += 1) {
+            left = g.add(left, -1);
+            right = g.add(right, -1);
+        }
+        assertArrayEquals(new int[] {fork}, MergeBase.find(g, left, right));
+        assertArrayEquals(new int[] {0}, MergeBase.find(g, 0, right));
+    }
+
+    /** Run gitlet on the command ARGS in the working directory DIR, in a
+     *  process of its own, with INPUT, if not null, as its standard
+     *  input.  Return what it printed. */
+    private static String gitlet(File dir, String input, String... args)
+        throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+                    .toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("gitlet.Main");
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).directory(dir)
+            .redirectErrorStream(true).start();
+        try (OutputStream in = process.getOutputStream()) {
+            if (input != null) {
+                in.write(input.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        String output = new String(process.getInputStream().readAllBytes(),
+                                   StandardCharsets.UTF_8);
+        try {
+            assertEquals(output, 0, process.waitFor());
+        } catch (InterruptedException excp) {
+            throw new AssertionError(excp);
+        }
+        return output;
+    }
+
+    /** Return the commit ids in LOG, the output of log or global-log. */
+    private static List<String> loggedIds(String log) {
+        List<String> result = new ArrayList<>();
+        for (String line : log.split("\n")) {
+            if (line.startsWith("commit ")) {
+                result.add(line.substring("commit ".length()));
+            }
+        }
+        return result;
+    }
+
+    /** Global-log keeps its order while formatting batches in parallel,
+     *  listing commits by id or, with --by-time, newest first. */
+    @Test
+    public void globalLogTest() throws IOException {
+        List<String> ids = new ArrayList<>();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 2 * GlobalLog.BATCH + 7; i += 1) {
+            ids.add("" + i);
+            expected.append('<').append(i).append(">\n");
+        }
+        StringWriter text = new StringWriter();
+        GlobalLog.print(ids.iterator(), id -> "<" + id + ">\n",
+                        new PrintWriter(text));
+        assertEquals(expected.toString(), text.toString());
 
+        File dir = tempDir();
+        File f = new File(dir, "f");
+        gitlet(dir, null, "init");
+        for (int i = 0; i < 3; i += 1) {
+            Utils.writeContents(f, i + "\n");
+            gitlet(dir, null, "add", "f");
+            gitlet(dir, null, "commit", "change " + i);
+        }
+        String byId = gitlet(dir, null, "global-log");
+        String byTime = gitlet(dir, null, "global-log", "--by-time");
+        List<String> sorted = loggedIds(byTime);
+        Collections.sort(sorted);
+        assertEquals(4, sorted.size());
+        assertEquals(sorted, loggedIds(byId));
+        List<String> messages = new ArrayList<>();
+        for (String entry : byTime.split("===\n")) {
+            if (!entry.isEmpty()) {
+                messages.add(entry.split("\n")[2]);
+            }
+        }
+        assertEquals(List.of("change 2", "change 1", "change 0",
+                             "initial commit"), messages);
+    }
+
+    /** The scan of a working tree lists the files of nested directories
+     *  in sorted path order, skipping the repository and empty
+     *  directories, and deletes leave no empty directories behind. */
+    @Test
+    public void workingTreeScanTest() throws IOException {
+        File dir = tempDir();
+        WorkingTree work = new WorkingTree(dir);
+        for (String path : new String[] {"b", "a0", "a.b", "a/x", "a/y/z",
+                                         "a-c/w", ".gitlet/HEAD",
+                                         "c/.gitlet/q"}) {
+            work.write(path, path.getBytes());
+        }
+        new File(dir, "empty/deeper").mkdirs();
+        List<String> expected = List.of(
+            "a-c/w", "a.b", "a/x", "a/y/z", "a0", "b", "c/.gitlet/q");
+        assertEquals(expected, work.paths().collect(Collectors.toList()));
+        TreeMap<String, String> blobs = new TreeMap<>();
+        blobs.put("a/x", "1");
+        blobs.put("a/w", "2");
+        List<String> visits = new ArrayList<>();
+        WorkingTree.join(work.paths(), blobs, (path, present, blob) ->
+            visits.add(path + (present ? "+" : "-") + blob));
+        assertEquals(List.of("a-c/w+null", "a.b+null", "a/w-2", "a/x+1",
+                             "a/y/z+null", "a0+null", "b+null",
+                             "c/.gitlet/q+null"), visits);
+        assertTrue(work.delete("a/y/z"));
+        assertFalse(new File(dir, "a/y").exists());
+        assertTrue(new File(dir, "a/x").isFile());
+        assertFalse(work.delete("a/y/z"));
+        assertFalse(work.delete("a"));
+    }
+
+    /** Cached blob ids are reused while a file's stat data are unchanged,
+     *  even across saves, but not for files modified just before they
+     *  were hashed. */
+    @Test
+    public void statCacheTest() throws IOException {
+        File dir = tempDir();
+        File cacheFile = new File(dir, ".gitlet/stat");
+        cacheFile.getParentFile().mkdirs();
+        WorkingTree work = new WorkingTree(dir);
+        File f = new File(dir, "f"), g = new File(dir, "g");
+        long old = System.currentTimeMillis() - 3600 * 1000;
+        Utils.writeContents(f, "one\n");
+        f.setLastModified(old);
+        Utils.writeContents(g, "one\n");
+        String one = Utils.sha1(Utils.readContents(f));
+        StatCache cache = new StatCache(cacheFile, work);
+        assertEquals(one, cache.blob("f"));
+        assertEquals(one, cache.blob("g"));
+        Utils.writeContents(f, "two\n");
+        f.setLastModified(old);
+        long racy = g.lastModified();
+        Utils.writeContents(g, "two\n");
+        g.setLastModified(racy);
+        String two = Utils.sha1(Utils.readContents(f));
+        assertEquals(one, cache.blob("f"));
+        assertEquals(two, cache.blob("g"));
+        cache.save();
+        cache = new StatCache(cacheFile, work);
+        assertEquals(one, cache.blob("f"));
+        Utils.writeContents(f, "three\n");
+        f.setLastModified(old);
+        assertEquals(Utils.sha1(Utils.readContents(f)),
+                     cache.blob("f"));
+        f.delete();
+        assertNull(cache.blob("f"));
+    }
+
+    /** Add takes files, directories and globs relative to the working
+     *  directory, and stages nothing if any name matches no file. */
+    @Test
+    public void addPathsTest() throws IOException {
+        File dir = tempDir();
+        gitlet(dir, null, "init");
+        for (String path : new String[] {"a.txt", "b.txt", "c.md",
+                                         "sub/d.txt", "sub/deep/e.md",
+                                         "other/f"}) {
+            File file = new File(dir, path);
+            file.getParentFile().mkdirs();
+            Utils.writeContents(file, path + "\n");
+        }
+        assertEquals("", gitlet(dir, null, "add", "*.txt", "sub"));
+        String staged = "a.txt\nb.txt\nsub/d.txt\nsub/deep/e.md\n";
+        assertTrue(gitlet(dir, null, "status").contains(
+            "=== Staged Files ===\n" + staged + "\n"));
+        assertEquals("File does not exist\n",
+                     gitlet(dir, null, "add", "other", "*.java"));
+        assertEquals("File does not exist\n",
+                     gitlet(dir, null, "add", ".gitlet"));
+        assertTrue(gitlet(dir, null, "status").contains(
+            "=== Staged Files ===\n" + staged + "\n"));
+        gitlet(dir, null, "add",
+               new File(dir, "other").getAbsolutePath(), ".");
+        assertTrue(gitlet(dir, null, "status").contains(
+            "=== Staged Files ===\na.txt\nb.txt\nc.md\nother/f\n"
+            + "sub/d.txt\nsub/deep/e.md\n\n"));
+    }
+
+    /** Checking out a branch writes, rewrites and deletes many files at
+     *  once, including a file that replaces a directory and the other
+     *  way around. */
+    @Test
+    public void parallelCheckoutTest() throws IOException {
+        File dir = tempDir();
+        WorkingTree work = new WorkingTree(dir);
+        gitlet(dir, null, "init");
+        for (int i = 0; i < 200; i += 1) {
+            work.write("d" + (i % 7) + "/f" + i, ("" + i).getBytes());
+        }
+        work.write("x/y", "y".getBytes());
+        gitlet(dir, "add .\ncommit many\nbranch other\ncheckout other\n",
+               "batch");
+        StringBuilder script = new StringBuilder("add .\nrm x/y\n");
+        for (int i = 0; i < 200; i += 1) {
+            String path = "d" + (i % 7) + "/f" + i;
+            if (i % 3 == 0) {
+                work.delete(path);
+                script.append("rm ").append(path).append('\n');
+            } else if (i % 3 == 1) {
+                work.write(path, ("new " + i).getBytes());
+            }
+        }
+        work.delete("x/y");
+        work.write("x", "x".getBytes());
+        script.append("commit fewer\n");
+        gitlet(dir, script.toString(), "batch");
+        gitlet(dir, null, "checkout", "master");
+        for (int i = 0; i < 200; i += 1) {
+            assertEquals("" + i, Utils.readContentsAsString(
+                work.file("d" + (i % 7) + "/f" + i)));
+        }
+        assertEquals("y", Utils.readContentsAsString(work.file("x/y")));
+        gitlet(dir, null, "checkout", "other");
+        for (int i = 0; i < 200; i += 1) {
+            File f = work.file("d" + (i % 7) + "/f" + i);
+            if (i % 3 == 0) {
+                assertFalse(f.exists());
+            } else {
+                assertEquals(i % 3 == 1 ? "new " + i : "" + i,
+                             Utils.readContentsAsString(f));
+            }
+        }
+        assertEquals("x", Utils.readContentsAsString(work.file("x")));
+        assertTrue(gitlet(dir, null, "status").endsWith(
+            "=== Modifications Not Staged For Commit ===\n\n"
+            + "=== Untracked Files ===\n\n"));
+    }
+
+    /** Diff prints unified hunks for the files changed between two
+     *  commits, and between the head and the working directory. */
+    @Test
+    public void diffCommandTest() throws IOException {
+        File dir = tempDir();
+        File f = new File(dir, "f"), g = new File(dir, "g"),
+            h = new File(dir, "h");
+        gitlet(dir, null, "init");
+        Utils.writeContents(f, "a\nb\nc\n");
+        Utils.writeContents(g, "x\n");
+        gitlet(dir, "add f g\ncommit one\n", "batch");
+        Utils.writeContents(f, "a\nB\nc\nd\n");
+        Utils.writeContents(h, "new\n");
+        gitlet(dir, "add f h\nrm g\ncommit two\n", "batch");
+        List<String> ids = loggedIds(gitlet(dir, null, "log"));
+        assertEquals("diff --git a/f b/f\n--- a/f\n+++ b/f\n"
+                     + "@@ -2 +2 @@\n-b\n+B\n@@ -3,0 +4 @@\n+d\n"
+                     + "diff --git a/g /dev/null\n--- a/g\n+++ /dev/null\n"
+                     + "@@ -1 +0,0 @@\n-x\n"
+                     + "diff --git /dev/null b/h\n--- /dev/null\n+++ b/h\n"
+                     + "@@ -0,0 +1 @@\n+new\n",
+                     gitlet(dir, null, "diff", ids.get(1).substring(0, 8),
+                            ids.get(0)));
+        assertEquals("", gitlet(dir, null, "diff"));
+        Utils.writeContents(f, "a\n");
+        Utils.writeContents(h, "new\0\n");
+        assertEquals("diff --git a/f b/f\n--- a/f\n+++ b/f\n"
+                     + "@@ -2,3 +1,0 @@\n-B\n-c\n-d\n"
+                     + "diff --git a/h b/h\n"
+                     + "Binary files a/h and b/h differ\n",
+                     gitlet(dir, null, "diff"));
+    }
+
+    /** A merge without conflicts applies the other branch's additions,
+     *  changes and deletions to the files and commits them, keeping the
+     *  changes made on both sides alike. */
+    @Test
+    public void cleanMergeTest() throws IOException {
+        File dir = tempDir();
+        WorkingTree work = new WorkingTree(dir);
+        gitlet(dir, null, "init");
+        for (String path : new String[] {"keep", "both", "gone", "theirs",
+                                         "d/mine"}) {
+            work.write(path, path.getBytes());
+        }
+        gitlet(dir, "add .\ncommit base\nbranch other\n", "batch");
+        work.write("both", "same".getBytes());
+        work.write("d/mine", "mine 2".getBytes());
+        work.write("d/ours", "ours".getBytes());
+        gitlet(dir, "add .\nrm gone\ncommit mine\ncheckout other\n",
+               "batch");
+        work.write("both", "same".getBytes());
+        work.write("theirs", "theirs 2".getBytes());
+        work.write("d/added", "added".getBytes());
+        gitlet(dir, "add .\nrm gone\nrm keep\ncommit theirs\n"
+               + "checkout master\n", "batch");
+        List<String> mine = loggedIds(gitlet(dir, null, "log"));
+        assertEquals("", gitlet(dir, null, "merge", "other"));
+        String log = gitlet(dir, null, "log");
+        assertTrue(log.startsWith("===\ncommit "));
+        assertTrue(log.contains("\nMerge: " + mine.get(0).substring(0, 7)
+                                + " "));
+        assertTrue(log.contains("\nMerged other into master.\n"));
+        assertEquals(mine, loggedIds(log).subList(1, mine.size() + 1));
+        assertFalse(work.file("keep").exists());
+        assertFalse(work.file("gone").exists());
+        assertEquals("added", Utils.readContentsAsString(
+            work.file("d/added")));
+        assertEquals("theirs 2", Utils.readContentsAsString(
+            work.file("theirs")));
+        assertEquals("mine 2", Utils.readContentsAsString(
+            work.file("d/mine")));
+        assertEquals("=== Branches ===\n*master\nother\n\n"
+                     + "=== Staged Files ===\n\n=== Removed Files ===\n\n"
+                     + "=== Modifications Not Staged For Commit ===\n\n"
+                     + "=== Untracked Files ===\n\n",
+                     gitlet(dir, null, "status"));
+        assertEquals("Given branch is an ancestor of the current branch.\n",
+                     gitlet(dir, null, "merge", "other"));
+        gitlet(dir, null, "checkout", "other");
+        assertEquals("Current branch fast-forwarded\n",
+                     gitlet(dir, null, "merge", "master"));
+        assertEquals(loggedIds(log), loggedIds(gitlet(dir, null, "log")));
+    }
+
+    /** A merge combines changes to different lines of a file, marks only
+     *  the lines changed on both sides, and commits the result. */
+    @Test
+    public void lineMergeTest() throws IOException {
+        File dir = tempDir();
+        File f = new File(dir, "f"), g = new File(dir, "g");
+        gitlet(dir, null, "init");
+        Utils.writeContents(f, "1\n2\n3\n4\n5\n");
+        Utils.writeContents(g, "a\nb\nc\n");
+        gitlet(dir, "add f g\ncommit base\nbranch other\n", "batch");
+        Utils.writeContents(f, "ONE\n2\n3\n4\n5\n");
+        Utils.writeContents(g, "a\nX\nc\n");
+        gitlet(dir, "add f g\ncommit mine\ncheckout other\n", "batch");
+        Utils.writeContents(f, "1\n2\n3\n4\nFIVE\n");
+        Utils.writeContents(g, "a\nY\nc\n");
+        gitlet(dir, "add f g\ncommit theirs\ncheckout master\n", "batch");
+        assertEquals("Encountered a merge conflict.\n",
+                     gitlet(dir, null, "merge", "other"));
+        assertTrue(gitlet(dir, null, "log").contains(
+            "\nMerged other into master.\n"));
+        assertEquals("ONE\n2\n3\n4\nFIVE\n", Utils.readContentsAsString(f));
+        assertEquals("a\n<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\nc\n",
+                     Utils.readContentsAsString(g));
+        Utils.writeContents(f, "changed\n");
+        gitlet(dir, null, "checkout", "--", "f");
+        assertEquals("ONE\n2\n3\n4\nFIVE\n", Utils.readContentsAsString(f));
+    }
+
+    /** Deleting a packed branch leaves an empty loose file hiding it,
+     *  which packing the branches folds away. */
+    @Test
+    public void deletedPackedRefTest() throws IOException {
+        File dir = tempDir();
+        File b2 = new File(dir, ".gitlet/refs/b2");
+        gitlet(dir, "init\nbranch b1\nbranch b2\nrepack\n", "batch");
+        assertFalse(b2.exists());
+        assertEquals("", gitlet(dir, null, "rm-branch", "b2"));
+        assertTrue(b2.isFile());
+        assertEquals(0, b2.length());
+        assertTrue(gitlet(dir, null, "status").startsWith(
+            "=== Branches ===\n*master\nb1\n\n"));
+        assertEquals("A branch with that name does not exist.\n",
+                     gitlet(dir, null, "rm-branch", "b2"));
+        gitlet(dir, null, "repack");
+        assertFalse(b2.exists());
+        assertTrue(gitlet(dir, null, "status").startsWith(
+            "=== Branches ===\n*master\nb1\n\n"));
+        assertEquals("No such branch exists\n",
+                     gitlet(dir, null, "checkout", "b2"));
+        gitlet(dir, null, "branch", "b2");
+        assertTrue(gitlet(dir, null, "status").startsWith(
+            "=== Branches ===\n*master\nb1\nb2\n\n"));
+    }
+
+}
@@ -0,0 +1,394 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** The journal of a file-system watcher, and its use by commands.
+ *
+ *  While "gitlet watch" runs, it holds a lock in the watch directory and
+ *  appends to its journal the path of every file or directory of the
+ *  working tree that is created, modified or deleted.  The journal
+ *  starts with a line naming the watcher's session and the time it
+ *  started watching; an overflow of the watch service is recorded as a
+ *  line "/".  The watcher starts a new session once the journal grows
+ *  past LIMIT bytes.
+ *
+ *  A command first synchronizes with the watcher: it creates a cookie
+ *  file in the watch directory and waits until the watcher has
+ *  journaled it, so that every change made before the command started
+ *  is in the journal.  It then replays the journal entries added since
+ *  the last command onto the saved list of working files.  The stat
+ *  cache entries of the paths changed are made untrusted until they are
+ *  verified again, since the command may not look at all of them.  When
+ *  the watcher is not running, the journal overflowed or belongs to
+ *  another session, or the cookie does not arrive within TIMEOUT, the
+ *  command scans the whole working tree instead.
+ *  @author Hanqi Xiong
+ */
+class WatchJournal {
+
+    /** Size of the journal that starts a new session, in bytes. */
+    static final long LIMIT = 1 << 20;
+
+    /** Time a command waits for its cookie, in milliseconds. */
+    static final long TIMEOUT = 2000;
+
+    /** Journal line recording an overflow. */
+    private static final String OVERFLOW = "/";
+
+    /** Prefix of cookie file names. */
+    private static final String COOKIE = "cookie-";
+
+    /** Prefix of journal lines recording a cookie. */
+    private static final String COOKIE_LINE = "#";
+
+    /** The watch directory. */
+    private final File dir;
+
+    /** The journal. */
+    private final File journal;
+
+    /** The list of working files as of the last command. */
+    private final File known;
+
+    /** The session and journal offset that list corresponds to. */
+    private final File state;
+
+    /** The lock held by the watcher. */
+    private final File lock;
+
+    /** The working tree watched. */
+    private final WorkingTree work;
+
+    /** The stat cache of the working files. */
+    private final StatCache cache;
+
+    /** True iff this process has synchronized with the watcher. */
+    private boolean synced;
+
+    /** The working files, or null if they must be scanned. */
+    private TreeSet<String> files;
+
+    /** The paths changed since the last command, or null if unknown. */
+    private Set<String> dirty;
+
+    /** The time the current session started watching. */
+    private long since;
+
+    /** A journal in DIR of the changes to WORK, whose files are cached
+     *  in CACHE. */
+    WatchJournal(File dir, WorkingTree work, StatCache cache) {
+        this.dir = dir;
+        this.work = work;
+        this.cache = cache;
+        journal = new File(dir, "journal");
+        known = new File(dir, "files");
+        state = new File(dir, "state");
+        lock = new File(dir, "lock");
+    }
+
+    /** Return the paths of the working files in sorted order, from the
+     *  journal if possible and by scanning the working tree otherwise. */
+    synchronized Stream<String> paths() {
+        sync();
+        return files == null ? work.paths() : files.stream();
+    }
+
+    /** Return true iff PATH is known not to have changed since the
+     *  watcher's session started, except through changes already seen
+     *  by an earlier command. */
+    synchronized boolean isClean(String path) {
+        sync();
+        return dirty != null && !dirty.contains(path);
+    }
+
+    /** Return the time the watcher's session started watching. */
+    synchronized long since() {
+        sync();
+        return since;
+    }
+
+    /** Forget the last synchronization, so that the next command
+     *  synchronizes again. */
+    synchronized void reset() {
+        synced = false;
+        files = null;
+        dirty = null;
+        since = 0;
+    }
+
+    /** Synchronize with the watcher, if it is running, and bring the
+     *  list of working files up to date. */
+    private void sync() {
+        if (synced) {
+            return;
+        }
+        synced = true;
+        if (!running()) {
+            return;
+        }
+        String cookie = COOKIE + ProcessHandle.current().pid()
+            + "-" + System.nanoTime();
+        File cookieFile = new File(dir, cookie);
+        try {
+            cookieFile.createNewFile();
+            byte[] data = awaitCookie(cookie);
+            if (data != null) {
+                replay(data);
+            }
+        } catch (IOException excp) {
+            files = null;
+            dirty = null;
+        } finally {
+            cookieFile.delete();
+        }
+    }
+
+    /** Bring the list of working files up to date from DATA, the
+     *  journal up to this command's cookie. */
+    private void replay(byte[] data) throws IOException {
+        String text = new String(data, StandardCharsets.UTF_8);
+        String header = text.substring(0, text.indexOf('\n'));
+        String session = header.split(" ")[0];
+        long start = Long.parseLong(header.split(" ")[1]);
+        String[] saved = state.isFile()
+            ? Utils.readContentsAsString(state).split(" ") : new String[0];
+        long offset = saved.length == 2 && saved[0].equals(session)
+            ? Long.parseLong(saved[1]) : -1;
+        Set<String> changed = null;
+        if (offset >= 0 && offset <= data.length && known.isFile()) {
+            changed = new HashSet<>(Arrays.asList(new String(data,
+                (int) offset, data.length - (int) offset,
+                StandardCharsets.UTF_8).split("\n")));
+            changed.removeIf(p -> p.isEmpty() || p.startsWith(COOKIE_LINE));
+            if (changed.contains(OVERFLOW)) {
+                changed = null;
+            }
+        }
+        boolean rewrite = true;
+        if (changed == null) {
+            files = work.paths().collect(
+                Collectors.toCollection(TreeSet::new));
+        } else {
+            files = new TreeSet<>(Arrays.asList(
+                Utils.readContentsAsString(known).split("\n")));
+            files.remove("");
+            dirty = new HashSet<>();
+            for (String path : changed) {
+                Set<String> under = files.subSet(path + "/", path + "0");
+                dirty.addAll(under);
+                under.clear();
+                files.remove(path);
+                dirty.add(path);
+                File f = work.file(path);
+                if (f.isFile()) {
+                    files.add(path);
+                } else if (f.isDirectory()) {
+                    new WorkingTree(f).paths().forEach(p -> {
+                        files.add(path + "/" + p);
+                        dirty.add(path + "/" + p);
+                    });
+                }
+            }
+            rewrite = !changed.isEmpty();
+            since = start;
+            cache.invalidate(dirty);
+            cache.save();
+        }
+        if (rewrite) {
+            Utils.writeContents(known, String.join("\n", files) + "\n");
+        }
+        Utils.writeContents(state, session + " " + data.length);
+    }
+
+    /** Return the contents of the journal up to and including the line
+     *  recording COOKIE, waiting up to TIMEOUT for it, or null. */
+    private byte[] awaitCookie(String cookie) throws IOException {
+        byte[] line = ("\n" + COOKIE_LINE + cookie + "\n")
+            .getBytes(StandardCharsets.UTF_8);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            byte[] data = journal.isFile()
+                ? Files.readAllBytes(journal.toPath()) : new byte[0];
+            int k = indexOf(data, line);
+            if (k >= 0) {
+                return Arrays.copyOf(data, k + line.length);
+            }
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException excp) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /** Return the index of the first occurrence of PATTERN in DATA,
+     *  or -1. */
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i + pattern.length <= data.length; i += 1) {
+            for (int j = 0; j < pattern.length; j += 1) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /** Return true iff a watcher holds the lock. */
+    private boolean running() {
+        if (!lock.isFile()) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(lock.toPath(),
+                 StandardOpenOption.WRITE)) {
+            FileLock held = ch.tryLock();
+            if (held == null) {
+                return true;
+            }
+            held.release();
+            return false;
+        } catch (OverlappingFileLockException excp) {
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Watch the working tree, journaling its changes, until
+     *  interrupted.  Prints a message and returns if a watcher is
+     *  already running. */
+    void watch() {
+        dir.mkdirs();
+        try (FileChannel ch = FileChannel.open(lock.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             WatchService service =
+                 FileSystems.getDefault().newWatchService()) {
+            FileLock held = ch.tryLock();
+            if (held == null) {
+                System.out.println("A watcher is already running.");
+                return;
+            }
+            Map<WatchKey, Path> keys = new HashMap<>();
+            Path root = work.root().toPath();
+            keys.put(dir.toPath().register(service,
+                         StandardWatchEventKinds.ENTRY_CREATE), dir.toPath());
+            registerAll(service, keys, root, root);
+            OutputStream out = startSession();
+            while (true) {
+                WatchKey key = service.take();
+                Path where = keys.get(key);
+                StringBuilder lines = new StringBuilder();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    journal(service, keys, root, where, event, lines);
+                }
+                if (!key.reset()) {
+                    keys.remove(key);
+                }
+                out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                if (journal.length() > LIMIT) {
+                    out.close();
+                    out = startSession();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException excp) {
+            return;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Append to LINES the journal entry for EVENT in directory WHERE of
+     *  the working tree at ROOT, registering new directories with
+     *  SERVICE and KEYS. */
+    private void journal(WatchService service, Map<WatchKey, Path> keys,
+                         Path root, Path where, WatchEvent<?> event,
+                         StringBuilder lines) throws IOException {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            lines.append(OVERFLOW).append('\n');
+            return;
+        }
+        String name = event.context().toString();
+        if (where.equals(dir.toPath())) {
+            if (name.startsWith(COOKIE)) {
+                lines.append(COOKIE_LINE).append(name).append('\n');
+            }
+            return;
+        }
+        Path child = where.resolve(name);
+        String path = root.relativize(child).toString()
+            .replace(File.separatorChar, '/');
+        if (path.equals(WorkingTree.REPOSITORY)) {
+            return;
+        }
+        lines.append(path).append('\n');
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+            && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+            registerAll(service, keys, root, child);
+        }
+    }
+
+    /** Register the directory START of the working tree at ROOT and all
+     *  directories under it with SERVICE, recording them in KEYS. */
+    private static void registerAll(WatchService service,
+                                    Map<WatchKey, Path> keys, Path root,
+                                    Path start) throws IOException {
+        Path repository = root.resolve(WorkingTree.REPOSITORY);
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d,
+                BasicFileAttributes attrs) throws IOException {
+                if (d.equals(repository)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                keys.put(d.register(service,
+                             StandardWatchEventKinds.ENTRY_CREATE,
+                             StandardWatchEventKinds.ENTRY_DELETE,
+                             StandardWatchEventKinds.ENTRY_MODIFY), d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Truncate the journal and start it with a new session line. */
+    private OutputStream startSession() throws IOException {
+        OutputStream out = new FileOutputStream(journal);
+        String session = Long.toHexString(System.nanoTime())
+            + Long.toHexString(ProcessHandle.current().pid());
+        out.write((session + " " + System.currentTimeMillis() + "\n")
+                  .getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        return out;
+    }
+}
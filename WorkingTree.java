@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/** The files of a working directory, at any depth.  Files are named by
+ *  their path relative to the root, with '/' as the separator, which is
+ *  how commits name them.  The repository directory .gitlet at the root
+ *  is not part of the working tree.
+ *  @author Hanqi Xiong
+ */
+class WorkingTree {
+
+    /** The name of the repository directory, which is never scanned. */
+    static final String REPOSITORY = ".gitlet";
+
+    /** Receiver of the paths of a join. */
+    interface Visitor {
+        /** Visit PATH, whose blob in the snapshot joined is BLOB (null
+         *  if it has none); PRESENT is true iff PATH is a file of the
+         *  working tree. */
+        void visit(String path, boolean present, String blob);
+    }
+
+    /** The root directory. */
+    private final File root;
+
+    /** The working tree rooted at ROOT. */
+    WorkingTree(File root) {
+        this.root = root;
+    }
+
+    /** Return the root directory. */
+    File root() {
+        return root;
+    }
+
+    /** Return the file at PATH. */
+    File file(String path) {
+        return new File(root, path);
+    }
+
+    /** Return the paths of all plain files of the working tree, in
+     *  sorted order.  Directories are listed in parallel; the result is
+     *  produced by walking the listings in order, without sorting or
+     *  collecting the paths. */
+    Stream<String> paths() {
+        Listing top = new Scan(root.toPath(), "").invoke();
+        return top.paths();
+    }
+
+    /** Write CONTENTS to the file at PATH, creating its directory if
+     *  needed. */
+    void write(String path, byte[] contents) {
+        Utils.writeContents(create(path), contents);
+    }
+
+    /** Return the file at PATH, creating its directory if needed.  Safe
+     *  to call from several threads at once. */
+    File create(String path) {
+        File file = file(path);
+        File dir = file.getParentFile();
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IllegalArgumentException("cannot create " + dir);
+        }
+        return file;
+    }
+
+    /** Delete the file at PATH, if any, and then the directories that
+     *  this leaves empty, up to the root.  Return true iff a file was
+     *  deleted. */
+    boolean delete(String path) {
+        File file = file(path);
+        if (file.isDirectory() || !file.delete()) {
+            return false;
+        }
+        for (File dir = file.getParentFile(); !dir.equals(root);
+             dir = dir.getParentFile()) {
+            String[] rest = dir.list();
+            if (rest == null || rest.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /** Call VISITOR on each path that is in PATHS, which must be sorted,
+     *  or in BLOBS, in sorted order, in one merged pass over the two. */
+    static void join(Stream<String> paths, SortedMap<String, String> blobs,
+                     Visitor visitor) {
+        Iterator<String> files = paths.iterator();
+        Iterator<Map.Entry<String, String>> tracked =
+            blobs.entrySet().iterator();
+        String file = files.hasNext() ? files.next() : null;
+        Map.Entry<String, String> blob =
+            tracked.hasNext() ? tracked.next() : null;
+        while (file != null || blob != null) {
+            int c = file == null ? 1
+                : blob == null ? -1 : file.compareTo(blob.getKey());
+            if (c < 0) {
+                visitor.visit(file, true, null);
+            } else if (c > 0) {
+                visitor.visit(blob.getKey(), false, blob.getValue());
+            } else {
+                visitor.visit(file, true, blob.getValue());
+            }
+            if (c <= 0) {
+                file = files.hasNext() ? files.next() : null;
+            }
+            if (c >= 0) {
+                blob = tracked.hasNext() ? tracked.next() : null;
+            }
+        }
+    }
+
+    /** The sorted entries of one directory.  A subdirectory is keyed by
+     *  its name followed by '/', which places it among its siblings
+     *  exactly where its files fall in the sorted order of full paths. */
+    private static class Listing {
+        /** The path of the directory, relative to the root, with a
+         *  trailing '/' unless it is the root. */
+        private final String prefix;
+
+        /** Plain files (mapped to null) and nonempty subdirectories. */
+        private final TreeMap<String, Listing> entries = new TreeMap<>();
+
+        /** A listing of the directory at PREFIX. */
+        Listing(String prefix) {
+            this.prefix = prefix;
+        }
+
+        /** Return the paths of the files under this directory, sorted. */
+        Stream<String> paths() {
+            return entries.entrySet().stream().flatMap(e ->
+                e.getValue() == null ? Stream.of(prefix + e.getKey())
+                : e.getValue().paths());
+        }
+    }
+
+    /** The listing of one directory, forking a task for each
+     *  subdirectory. */
+    private static class Scan extends RecursiveTask<Listing> {
+        /** Version of the serialized form. */
+        private static final long serialVersionUID = 1L;
+
+        /** The directory. */
+        private final Path dir;
+
+        /** Its path relative to the root, as for Listing. */
+        private final String prefix;
+
+        /** A scan of DIR, whose relative path is PREFIX. */
+        Scan(Path dir, String prefix) {
+            this.dir = dir;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected Listing compute() {
+            Listing result = new Listing(prefix);
+            List<Scan> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> entries =
+                     Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        if (!prefix.isEmpty() || !name.equals(REPOSITORY)) {
+                            Scan sub = new Scan(entry, prefix + name + "/");
+                            sub.fork();
+                            subdirs.add(sub);
+                        }
+                    } else if (Files.isRegularFile(entry)) {
+                        result.entries.put(name, null);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            for (Scan sub : subdirs) {
+                Listing listing = sub.join();
+                if (!listing.entries.isEmpty()) {
+                    String name = listing.prefix.substring(prefix.length());
+                    result.entries.put(name, listing);
+                }
+            }
+            return result;
+        }
+    }
+}